@@ -0,0 +1,158 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+
+import js.file.Files;
+import js.json.JSMap;
+
+/**
+ * A content-addressed store of file contents, within the generated
+ * directory. Each blob is named by the digest of its contents, so identical
+ * outputs (from different tests, or different runs of the same test) are
+ * stored only once.
+ * 
+ * A directory tree is represented by a manifest, a JSMap of relative paths to
+ * digests
+ */
+final class BlobStore {
+
+  /**
+   * Get the file holding the contents with a particular digest
+   */
+  public static File blobFile(String digest) {
+    return new File(storeDir(), digest.substring(0, 2) + "/" + digest.substring(2));
+  }
+
+  /**
+   * Store the files within a directory, returning its manifest. If consume is
+   * true, the files are moved into the store (or deleted, if their contents are
+   * already there)
+   */
+  public static JSMap storeDirectory(File dir, boolean consume) {
+    JSMap manifest = map();
+    auxStoreDirectory(dir, "", consume, manifest);
+    return manifest;
+  }
+
+  /**
+   * Store some text, returning its digest
+   */
+  public static String storeString(String content) {
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    String digest = Digests.hex(Digests.newDigest().digest(bytes));
+    File blob = blobFile(digest);
+    if (!blob.exists()) {
+      File temp = tempFile(blob);
+      try {
+        java.nio.file.Files.write(temp.toPath(), bytes);
+      } catch (IOException e) {
+        throw Files.asFileException(e);
+      }
+      install(temp, blob);
+    }
+    return digest;
+  }
+
+  /**
+   * Construct the manifest of a directory without storing its files
+   */
+  public static JSMap manifest(File dir) {
+    JSMap manifest = map();
+    auxManifest(dir, "", manifest);
+    return manifest;
+  }
+
+  private static void auxManifest(File dir, String prefix, JSMap manifest) {
+    for (File f : MyTestUtils.files(dir)) {
+      if (f.getName().equals(".DS_Store"))
+        continue;
+      if (f.isDirectory())
+        auxManifest(f, prefix + f.getName() + "/", manifest);
+      else
+        manifest.put(prefix + f.getName(), MerkleSummary.fileDigest(f));
+    }
+  }
+
+  private static void auxStoreDirectory(File dir, String prefix, boolean consume, JSMap manifest) {
+    for (File f : MyTestUtils.files(dir)) {
+      if (f.getName().equals(".DS_Store"))
+        continue;
+      if (f.isDirectory()) {
+        auxStoreDirectory(f, prefix + f.getName() + "/", consume, manifest);
+        continue;
+      }
+      String digest = Digests.digestOf(f);
+      manifest.put(prefix + f.getName(), digest);
+      File blob = blobFile(digest);
+      if (blob.exists()) {
+        if (consume)
+          Files.S.deleteFile(f);
+        continue;
+      }
+      if (consume)
+        install(f, blob);
+      else {
+        File temp = tempFile(blob);
+        try {
+          java.nio.file.Files.copy(f.toPath(), temp.toPath());
+        } catch (IOException e) {
+          throw Files.asFileException(e);
+        }
+        install(temp, blob);
+      }
+    }
+  }
+
+  private static File tempFile(File blob) {
+    Files.S.mkdirs(Files.parent(blob));
+    return new File(Files.parent(blob), blob.getName() + "." + ProcessHandle.current().pid() + "_"
+        + Thread.currentThread().getId() + ".tmp");
+  }
+
+  /**
+   * Move a file into its place in the store; if another process has already
+   * stored it, the rename just replaces it with identical contents
+   */
+  private static void install(File source, File blob) {
+    Files.S.mkdirs(Files.parent(blob));
+    try {
+      java.nio.file.Files.move(source.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+  }
+
+  private static File storeDir() {
+    return new File(MyTestUtils.unitTestDirectory().getAbsoluteFile(), "generated/_blobs_");
+  }
+}
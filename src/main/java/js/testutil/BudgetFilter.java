@@ -0,0 +1,119 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+
+/**
+ * Selects the tests to run within a time budget, e.g. for a quick pre-commit
+ * run.
+ * 
+ * The budget is shared by all the test classes run by this process. As each
+ * class is about to run, the tests that remain to be run (e.g. after sharding)
+ * are considered in fail-fast order (recent failures first, then by increasing
+ * duration, according to the TestHistory), and each is selected if its
+ * recorded duration fits within what remains of the budget. This maximizes the
+ * number of tests run, after those that failed recently. Tests that have no
+ * history are always run, since they are likely to be new
+ */
+final class BudgetFilter extends Filter {
+
+  public static BudgetFilter sharedInstance() {
+    if (sInstance == null) {
+      synchronized (BudgetFilter.class) {
+        if (sInstance == null)
+          sInstance = new BudgetFilter(TestConfig.budgetSeconds() * 1000L);
+      }
+    }
+    return sInstance;
+  }
+
+  private static volatile BudgetFilter sInstance;
+
+  private BudgetFilter(long budgetMs) {
+    mBudgetMs = budgetMs;
+    mRemainingMs = budgetMs;
+  }
+
+  /**
+   * Select which of the tests within a Description (i.e., those of a class
+   * that are to be run, if no budget were applied) fit within what remains of
+   * the budget
+   */
+  public synchronized void allocate(Description description) {
+    List<Description> tests = arrayList();
+    collectTests(description, tests);
+    TestHistory history = TestHistory.sharedInstance();
+    tests.sort(history.failFastSorter());
+    for (Description test : tests) {
+      String className = TestHistory.simpleClassName(test);
+      long duration = history.durationMs(className, test.getMethodName());
+      if (duration < 0)
+        continue;
+      String key = className + "." + test.getMethodName();
+      if (duration <= mRemainingMs) {
+        mRemainingMs -= duration;
+        mSelected.add(key);
+      } else
+        mExcluded.add(key);
+    }
+  }
+
+  private static void collectTests(Description description, List<Description> output) {
+    if (description.getMethodName() != null)
+      output.add(description);
+    else
+      for (Description child : description.getChildren())
+        collectTests(child, output);
+  }
+
+  @Override
+  public synchronized boolean shouldRun(Description description) {
+    if (description.getMethodName() == null) {
+      for (Description child : description.getChildren())
+        if (shouldRun(child))
+          return true;
+      return false;
+    }
+    String key = TestHistory.simpleClassName(description) + "." + description.getMethodName();
+    return !mExcluded.contains(key);
+  }
+
+  @Override
+  public synchronized String describe() {
+    return "tests fitting within " + mBudgetMs + " ms (" + mSelected.size() + " known)";
+  }
+
+  private final long mBudgetMs;
+  private long mRemainingMs;
+  private final Set<String> mSelected = hashSet();
+  private final Set<String> mExcluded = hashSet();
+}
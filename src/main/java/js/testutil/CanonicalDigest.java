@@ -0,0 +1,247 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import js.data.AbstractData;
+import js.file.Files;
+import js.json.JSList;
+import js.json.JSMap;
+
+/**
+ * Calculates a digest of a value by walking its structure (JSMap, JSList,
+ * AbstractData, ...) and feeding its contents to a MessageDigest, without
+ * constructing a string representation of it. Map keys are visited in sorted
+ * order, and equal numbers of different types (e.g. 100 and 100L) produce the
+ * same digest, so the digest agrees with the JSMap notion of equality
+ */
+final class CanonicalDigest {
+
+  /**
+   * Calculate the hash code to store in the HashCodeRegistry for a value.
+   * These have five digits, to distinguish them from the four-digit codes
+   * derived from Object.hashCode()
+   */
+  public static int registryHash(Object value) {
+    CanonicalDigest d = new CanonicalDigest();
+    d.feed(value);
+    return d.registryHash();
+  }
+
+  /**
+   * Determine if a registry hash code was produced by registryHash()
+   */
+  public static boolean isDigestHash(int registryHash) {
+    return registryHash >= 10000;
+  }
+
+  public static byte[] digest(Object value) {
+    CanonicalDigest d = new CanonicalDigest();
+    d.feed(value);
+    return d.mDigest.digest();
+  }
+
+  /**
+   * Start a digest whose value will be supplied incrementally, via
+   * beginMap(), mapKey(), value() and endMap(), with map keys in sorted order.
+   * Produces the same digest as registryHash() of the equivalent value
+   */
+  public static CanonicalDigest streaming() {
+    return new CanonicalDigest();
+  }
+
+  public void beginMap() {
+    tag('m');
+  }
+
+  public void mapKey(String key) {
+    feedString(key);
+  }
+
+  public void value(Object value) {
+    feed(value);
+  }
+
+  public void endMap() {
+    tag('M');
+  }
+
+  /**
+   * Finish a streaming digest (started by streaming()), returning its
+   * registry hash code
+   */
+  public int registryHash() {
+    byte[] digest = mDigest.digest();
+    int hash = ((digest[0] & 0xff) << 24) | ((digest[1] & 0xff) << 16) | ((digest[2] & 0xff) << 8)
+        | (digest[3] & 0xff);
+    return (hash & 0x7fffffff) % 90000 + 10000;
+  }
+
+  /**
+   * Construct a compact description of a value, truncated to (about) a
+   * maximum length; unlike prettyPrint(), this doesn't construct the string
+   * representation of the entire value
+   */
+  public static String preview(Object value, int maxLength) {
+    StringBuilder sb = new StringBuilder();
+    try {
+      appendPreview(sb, value, maxLength);
+    } catch (PreviewFullException e) {
+      sb.append(" ...(truncated)");
+    }
+    return sb.toString();
+  }
+
+  private static void appendPreview(StringBuilder sb, Object value, int maxLength) {
+    if (sb.length() > maxLength)
+      throw new PreviewFullException();
+    if (value instanceof JSMap) {
+      Map<String, Object> map = ((JSMap) value).wrappedMap();
+      List<String> keys = new ArrayList<>(map.keySet());
+      keys.sort(null);
+      sb.append('{');
+      for (String key : keys) {
+        if (sb.charAt(sb.length() - 1) != '{')
+          sb.append(", ");
+        sb.append('"').append(key).append("\":");
+        appendPreview(sb, map.get(key), maxLength);
+      }
+      sb.append('}');
+    } else if (value instanceof JSList) {
+      sb.append('[');
+      boolean first = true;
+      for (Object element : ((JSList) value).wrappedList()) {
+        if (!first)
+          sb.append(", ");
+        first = false;
+        appendPreview(sb, element, maxLength);
+      }
+      sb.append(']');
+    } else if (value instanceof AbstractData) {
+      appendPreview(sb, ((AbstractData) value).toJson(), maxLength);
+    } else if (value instanceof String) {
+      String string = (String) value;
+      sb.append('"');
+      sb.append(string, 0, Math.min(string.length(), maxLength + 1 - Math.min(sb.length(), maxLength)));
+      sb.append('"');
+    } else {
+      sb.append(value);
+    }
+    if (sb.length() > maxLength)
+      throw new PreviewFullException();
+  }
+
+  private static class PreviewFullException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private CanonicalDigest() {
+    mDigest = Digests.newDigest();
+  }
+
+  private void feed(Object value) {
+    if (value == null) {
+      tag('n');
+    } else if (value instanceof JSMap) {
+      Map<String, Object> map = ((JSMap) value).wrappedMap();
+      List<String> keys = new ArrayList<>(map.keySet());
+      keys.sort(null);
+      // Terminate the entries with a marker rather than prefixing their count,
+      // so maps can be digested without knowing their size in advance
+      beginMap();
+      for (String key : keys) {
+        mapKey(key);
+        feed(map.get(key));
+      }
+      endMap();
+    } else if (value instanceof JSList) {
+      List<Object> list = ((JSList) value).wrappedList();
+      tag('l');
+      feedLong(list.size());
+      for (Object element : list)
+        feed(element);
+    } else if (value instanceof AbstractData) {
+      feed(((AbstractData) value).toJson());
+    } else if (value instanceof String) {
+      tag('s');
+      feedString((String) value);
+    } else if (value instanceof Byte || value instanceof Short || value instanceof Integer
+        || value instanceof Long) {
+      tag('i');
+      feedLong(((Number) value).longValue());
+    } else if (value instanceof Number) {
+      tag('d');
+      feedLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+    } else if (value instanceof Boolean) {
+      tag(((Boolean) value) ? 't' : 'f');
+    } else if (value instanceof byte[]) {
+      byte[] bytes = (byte[]) value;
+      tag('y');
+      feedLong(bytes.length);
+      mDigest.update(bytes);
+    } else if (value instanceof File) {
+      File file = (File) value;
+      tag('y');
+      feedLong(file.length());
+      try (InputStream input = new FileInputStream(file)) {
+        Digests.update(mDigest, input);
+      } catch (IOException e) {
+        throw Files.asFileException(e);
+      }
+    } else {
+      // We don't know the structure of this value, so use its string representation 
+      tag('o');
+      feedString(value.toString());
+    }
+  }
+
+  private void tag(char tag) {
+    mDigest.update((byte) tag);
+  }
+
+  private void feedString(String string) {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    feedLong(bytes.length);
+    mDigest.update(bytes);
+  }
+
+  private void feedLong(long value) {
+    for (int i = 0; i < 8; i++)
+      mWork[i] = (byte) (value >>> (56 - i * 8));
+    mDigest.update(mWork);
+  }
+
+  private final MessageDigest mDigest;
+  private final byte[] mWork = new byte[8];
+}
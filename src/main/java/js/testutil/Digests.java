@@ -0,0 +1,91 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import js.file.Files;
+
+/**
+ * Utilities for calculating message digests, e.g. to detect whether a file has
+ * changed
+ */
+final class Digests {
+
+  public static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw die(e);
+    }
+  }
+
+  public static void update(MessageDigest digest, String text) {
+    digest.update(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public static void update(MessageDigest digest, InputStream input) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    while (true) {
+      int count = input.read(buffer);
+      if (count < 0)
+        break;
+      digest.update(buffer, 0, count);
+    }
+  }
+
+  /**
+   * Calculate digest of a file's contents, as a hex string
+   */
+  public static String digestOf(File file) {
+    MessageDigest digest = newDigest();
+    try (InputStream input = new FileInputStream(file)) {
+      update(digest, input);
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+    return hex(digest.digest());
+  }
+
+  public static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(HEX_DIGITS.charAt((b >> 4) & 0xf));
+      sb.append(HEX_DIGITS.charAt(b & 0xf));
+    }
+    return sb.toString();
+  }
+
+  private static final String HEX_DIGITS = "0123456789abcdef";
+  private static final int BUFFER_SIZE = 1 << 16;
+}
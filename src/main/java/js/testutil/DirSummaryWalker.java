@@ -0,0 +1,401 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+import js.file.Files;
+import js.json.JSMap;
+
+/**
+ * Walks a directory tree in the same order as MyTestUtils.dirSummary(),
+ * reporting its (nonempty) subdirectories and files to a visitor, so the
+ * summary's hash code, digest, or json representation can be produced without
+ * constructing the whole summary in memory.
+ * 
+ * Only the entries of the directories along the current path (and the hashes
+ * of a limited number of files, which are calculated concurrently) are held
+ * in memory; the files and subdirectories that have already been visited are
+ * replaced by stubs holding their hash codes. Files and directories can be
+ * excluded by their path relative to the root, which avoids having to delete
+ * them beforehand
+ */
+final class DirSummaryWalker {
+
+  interface Visitor {
+
+    /**
+     * Start a (nonempty) directory; name is null for the root
+     */
+    void beginDir(String name);
+
+    void file(String name, Object value);
+
+    void endDir();
+  }
+
+  public DirSummaryWalker(File dir, List<String> optFilenamesToIgnore, Collection<String> optExcludedPaths) {
+    mDir = dir;
+    mIgnored = MyTestUtils.ignoredSet(optFilenamesToIgnore);
+    mExcluded = hashSet();
+    if (optExcludedPaths != null)
+      for (String path : optExcludedPaths)
+        mExcluded.add(new File(path).getPath());
+  }
+
+  /**
+   * Supply the digests of files that are already known (e.g., output whose
+   * digest was calculated as it was written), so they needn't be read to
+   * calculate registryHash(); the function returns null for other files
+   */
+  public DirSummaryWalker withKnownDigests(Function<File, String> knownDigests) {
+    mKnownDigests = knownDigests;
+    return this;
+  }
+
+  public void walk(Visitor visitor) {
+    walk(visitor, false);
+  }
+
+  /**
+   * Walk the tree; if useDigests is true, the values reported for files are
+   * their SHA-256 digests, rather than their hashes within the summary
+   */
+  private void walk(Visitor visitor, boolean useDigests) {
+    mVisitor = visitor;
+    mUseDigests = useDigests;
+    mPending.clear();
+    visitor.beginDir(null);
+    walkDir(mDir, "");
+    visitor.endDir();
+    mVisitor = null;
+  }
+
+  /**
+   * Calculate the hash code of the summary, i.e. dirSummary(...).hashCode()
+   */
+  public int summaryHashCode() {
+    SummaryVisitor v = new SummaryVisitor(sHashStubsSupported);
+    walk(v);
+    return v.mResult.hashCode();
+  }
+
+  /**
+   * Calculate the CanonicalDigest registry hash of the directory. This is the
+   * registry hash of a map like the summary, but whose values for files are
+   * their SHA-256 digests (as hex strings)
+   */
+  public int registryHash() {
+    CanonicalDigest digest = CanonicalDigest.streaming();
+    walk(new Visitor() {
+      @Override
+      public void beginDir(String name) {
+        if (name != null)
+          digest.mapKey(name);
+        digest.beginMap();
+      }
+
+      @Override
+      public void file(String name, Object value) {
+        digest.mapKey(name);
+        digest.value(value);
+      }
+
+      @Override
+      public void endDir() {
+        digest.endMap();
+      }
+    }, true);
+    return digest.registryHash();
+  }
+
+  /**
+   * Construct the complete summary
+   */
+  public JSMap summary() {
+    SummaryVisitor v = new SummaryVisitor(false);
+    walk(v);
+    return v.mResult;
+  }
+
+  /**
+   * Write the summary, as compact json, to a destination as it is being
+   * constructed
+   */
+  public void writeJson(Appendable output) {
+    walk(new JsonVisitor(output));
+  }
+
+  private void walkDir(File dir, String relPath) {
+    // Consecutive files are hashed concurrently, in batches of limited size
+    List<File> batch = arrayList();
+    for (File f : MyTestUtils.files(dir)) {
+      String name = f.getName();
+      if (mIgnored.contains(name))
+        continue;
+      String path = relPath.isEmpty() ? name : relPath + File.separator + name;
+      if (mExcluded.contains(path))
+        continue;
+      if (f.isDirectory()) {
+        visitFiles(batch);
+        // Don't report the directory until we know it's not empty
+        mPending.add(name);
+        walkDir(f, path);
+        if (!mPending.isEmpty())
+          mPending.removeLast();
+        else
+          mVisitor.endDir();
+      } else {
+        batch.add(f);
+        if (batch.size() == HASH_BATCH_SIZE)
+          visitFiles(batch);
+      }
+    }
+    visitFiles(batch);
+  }
+
+  private void visitFiles(List<File> batch) {
+    if (batch.isEmpty())
+      return;
+    Object[] hashes = mUseDigests ? fileDigests(batch) : MyTestUtils.fileHashes(batch);
+    for (String pendingName : mPending)
+      mVisitor.beginDir(pendingName);
+    mPending.clear();
+    for (int i = 0; i < hashes.length; i++)
+      mVisitor.file(batch.get(i).getName(), hashes[i]);
+    batch.clear();
+  }
+
+  /**
+   * Get the digests of some files, calculating them concurrently if they're
+   * not already known
+   */
+  private Object[] fileDigests(List<File> files) {
+    List<ForkJoinTask<String>> tasks = arrayList();
+    for (File f : files)
+      tasks.add(ForkJoinTask.adapt(() -> {
+        String digest = (mKnownDigests == null) ? null : mKnownDigests.apply(f);
+        return (digest != null) ? digest : MerkleSummary.fileDigest(f);
+      }));
+    ForkJoinTask.invokeAll(tasks);
+    Object[] digests = new Object[tasks.size()];
+    for (int i = 0; i < digests.length; i++)
+      digests[i] = tasks.get(i).join();
+    return digests;
+  }
+
+  private static final int HASH_BATCH_SIZE = 64;
+
+  /**
+   * Constructs the summary, optionally replacing each visited file or
+   * subdirectory by a stub with the same hash code
+   */
+  private static final class SummaryVisitor implements Visitor {
+
+    SummaryVisitor(boolean useStubs) {
+      mUseStubs = useStubs;
+    }
+
+    @Override
+    public void beginDir(String name) {
+      mMaps.push(map());
+      mNames.push(nullToEmpty(name));
+    }
+
+    @Override
+    public void file(String name, Object value) {
+      mMaps.peek().putUnsafe(name, mUseStubs ? new HashStub(value.hashCode()) : value);
+    }
+
+    @Override
+    public void endDir() {
+      JSMap m = mMaps.pop();
+      String name = mNames.pop();
+      if (mMaps.isEmpty())
+        mResult = m;
+      else
+        mMaps.peek().putUnsafe(name, mUseStubs ? new HashStub(m.hashCode()) : m);
+    }
+
+    private final boolean mUseStubs;
+    private final Deque<JSMap> mMaps = new ArrayDeque<>();
+    private final Deque<String> mNames = new ArrayDeque<>();
+    private JSMap mResult;
+  }
+
+  /**
+   * A placeholder for a value that has already been visited, which has the
+   * same hash code as that value
+   */
+  private static final class HashStub {
+
+    HashStub(int hashCode) {
+      mHashCode = hashCode;
+    }
+
+    @Override
+    public int hashCode() {
+      return mHashCode;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof HashStub && ((HashStub) other).mHashCode == mHashCode;
+    }
+
+    @Override
+    public String toString() {
+      return "#" + mHashCode;
+    }
+
+    private final int mHashCode;
+  }
+
+  /**
+   * Determine if the JSMap hash code depends only upon its keys and the hash
+   * codes of its values, so stubs can be substituted for them; if not, the
+   * summary is constructed in full
+   */
+  private static boolean hashStubsSupported() {
+    try {
+      JSMap child = map();
+      child.putUnsafe("beta", "b");
+      child.putUnsafe("gamma", 42);
+      JSMap m = map();
+      m.putUnsafe("alpha", child);
+      m.putUnsafe("delta", "d");
+
+      JSMap stubbed = map();
+      stubbed.putUnsafe("alpha", new HashStub(child.hashCode()));
+      stubbed.putUnsafe("delta", new HashStub("d".hashCode()));
+      return m.hashCode() == stubbed.hashCode();
+    } catch (Throwable t) {
+      return false;
+    }
+  }
+
+  private static final boolean sHashStubsSupported = hashStubsSupported();
+
+  /**
+   * Writes the summary as compact json
+   */
+  private static final class JsonVisitor implements Visitor {
+
+    JsonVisitor(Appendable output) {
+      mOutput = output;
+    }
+
+    @Override
+    public void beginDir(String name) {
+      if (name != null)
+        key(name);
+      append("{");
+      mNeedComma = false;
+    }
+
+    @Override
+    public void file(String name, Object value) {
+      key(name);
+      if (value instanceof Number || value instanceof Boolean)
+        append(value.toString());
+      else
+        quote(value.toString());
+      mNeedComma = true;
+    }
+
+    @Override
+    public void endDir() {
+      append("}");
+      mNeedComma = true;
+    }
+
+    private void key(String name) {
+      if (mNeedComma)
+        append(",");
+      quote(name);
+      append(":");
+    }
+
+    private void quote(String text) {
+      StringBuilder sb = new StringBuilder(text.length() + 2);
+      sb.append('"');
+      for (int i = 0; i < text.length(); i++) {
+        char c = text.charAt(i);
+        switch (c) {
+        case '"':
+        case '\\':
+          sb.append('\\').append(c);
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < ' ')
+            sb.append(String.format("\\u%04x", (int) c));
+          else
+            sb.append(c);
+          break;
+        }
+      }
+      sb.append('"');
+      append(sb);
+    }
+
+    private void append(CharSequence text) {
+      try {
+        mOutput.append(text);
+      } catch (IOException e) {
+        throw Files.asFileException(e);
+      }
+    }
+
+    private final Appendable mOutput;
+    private boolean mNeedComma;
+  }
+
+  private final File mDir;
+  private final Set<String> mIgnored;
+  private final Set<String> mExcluded;
+  private final Deque<String> mPending = new ArrayDeque<>();
+  private Visitor mVisitor;
+  private boolean mUseDigests;
+  private Function<File, String> mKnownDigests;
+}
@@ -0,0 +1,191 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import js.file.FileException;
+import js.file.Files;
+
+/**
+ * Synchronizes a copy of a directory tree, in the style of rsync: files whose
+ * size and digest already match are not copied again
+ */
+final class DirSync {
+
+  /**
+   * Synchronize a copy of a directory in the background. The source's files
+   * are first hard linked into a staging directory, so the source can be
+   * deleted (or its files replaced) as soon as this method returns; all of the
+   * copying and comparing is done in the background.
+   * 
+   * Files that can't be linked (e.g. the filesystem doesn't support hard
+   * links) are copied from the source in the background instead. Since the
+   * links share the source files' contents, a source file that is modified in
+   * place (rather than replaced) after this method returns may appear in the
+   * copy in its modified form; this is acceptable for the copies made for
+   * inspection.
+   * 
+   * The label identifies the caller in any alerts that are generated
+   */
+  public static Future<?> syncInBackground(File source, File target, boolean deleteStale,
+      Set<String> preservedNames, String label) {
+    File staging = new File(MyTestUtils.unitTestDirectory().getAbsoluteFile(), "generated/_staging_/"
+        + source.getName() + "_" + ProcessHandle.current().pid() + "_" + sCounter.incrementAndGet());
+    List<String> unlinked = arrayList();
+    linkDir(source, staging, "", unlinked, label);
+    return executor().submit(() -> {
+      try {
+        for (String relPath : unlinked)
+          copyFile(new File(source, relPath), new File(staging, relPath), label);
+        sync(staging, target, deleteStale, preservedNames, label);
+      } finally {
+        Trash.discard(staging);
+      }
+    });
+  }
+
+  /**
+   * Hard link the files of a directory tree into another; the relative paths
+   * of any that couldn't be linked are added to a list (once one fails, no
+   * more links are attempted)
+   */
+  private static void linkDir(File sourceDir, File targetDir, String prefix, List<String> unlinked,
+      String label) {
+    Files.S.mkdirs(targetDir);
+    for (File f : MyTestUtils.files(sourceDir)) {
+      String relPath = prefix + f.getName();
+      File target = new File(targetDir, f.getName());
+      if (f.isDirectory()) {
+        linkDir(f, target, relPath + "/", unlinked, label);
+        continue;
+      }
+      if (!unlinked.isEmpty()) {
+        unlinked.add(relPath);
+        continue;
+      }
+      try {
+        java.nio.file.Files.createLink(target.toPath(), f.toPath());
+      } catch (NoSuchFileException e) {
+        alert("File(s) disappeared within " + label);
+      } catch (IOException | UnsupportedOperationException e) {
+        // Probably on a different filesystem from the source, or one without hard links
+        unlinked.add(relPath);
+      }
+    }
+  }
+
+  /**
+   * Make a directory contain copies of the files in another. If deleteStale
+   * is true, files that don't appear in the source are deleted, unless their
+   * names are in the set of names to be preserved.
+   * 
+   * Source files that disappear while they are being copied (e.g., deleted by
+   * some background task) generate an alert, but are otherwise ignored
+   */
+  public static void sync(File source, File target, boolean deleteStale, Set<String> preservedNames,
+      String label) {
+    Map<String, File> existing = hashMap();
+    if (target.exists())
+      collectFiles(target, "", existing);
+    Files.S.mkdirs(target);
+    syncDir(source, target, "", existing, label);
+    if (!deleteStale)
+      return;
+    for (File f : existing.values()) {
+      if (preservedNames.contains(f.getName()))
+        continue;
+      alert("Deleted stale file(s) within " + label);
+      Files.S.deleteFile(f);
+    }
+  }
+
+  private static void collectFiles(File dir, String prefix, Map<String, File> output) {
+    for (File f : MyTestUtils.files(dir)) {
+      if (f.isDirectory())
+        collectFiles(f, prefix + f.getName() + "/", output);
+      else
+        output.put(prefix + f.getName(), f);
+    }
+  }
+
+  private static void syncDir(File sourceDir, File targetDir, String prefix, Map<String, File> existing,
+      String label) {
+    for (File f : MyTestUtils.files(sourceDir)) {
+      String relPath = prefix + f.getName();
+      File target = new File(targetDir, f.getName());
+      if (f.isDirectory()) {
+        Files.S.mkdirs(target);
+        syncDir(f, target, relPath + "/", existing, label);
+        continue;
+      }
+      File old = existing.remove(relPath);
+      try {
+        // The target's digest is probably cached from an earlier sync
+        if (old != null && old.length() == f.length()
+            && MerkleSummary.fileDigest(old).equals(Digests.digestOf(f)))
+          continue;
+      } catch (FileException e) {
+        // Thrown when reading the digest of a file that has since been deleted
+        if (!(e.getCause() instanceof FileNotFoundException || e.getCause() instanceof NoSuchFileException))
+          throw e;
+        alert("File(s) disappeared within " + label);
+        continue;
+      }
+      copyFile(f, target, label);
+    }
+  }
+
+  private static void copyFile(File source, File target, String label) {
+    try {
+      java.nio.file.Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (NoSuchFileException e) {
+      alert("File(s) disappeared within " + label);
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+  }
+
+  private static synchronized ExecutorService executor() {
+    if (sExecutor == null)
+      sExecutor = ThreadSupport.newExecutor("dir-sync", 1);
+    return sExecutor;
+  }
+
+  private static final AtomicInteger sCounter = new AtomicInteger();
+  private static ExecutorService sExecutor;
+}
@@ -0,0 +1,89 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import js.file.Files;
+
+/**
+ * Compares the contents of files without reading them into the heap: their
+ * sizes are compared first, then memory-mapped regions of them are compared a
+ * chunk at a time, stopping at the first mismatch
+ */
+final class FileComparison {
+
+  /**
+   * Determine if two files have the same contents
+   */
+  public static boolean sameContents(File a, File b) {
+    return a.length() == b.length() && mismatch(a, b) < 0;
+  }
+
+  /**
+   * Find the offset of the first byte that differs between two files; if one
+   * is a prefix of the other, this is the length of the shorter one. Returns
+   * -1 if the contents are the same
+   */
+  public static long mismatch(File a, File b) {
+    long lengthA = a.length();
+    long lengthB = b.length();
+    long common = Math.min(lengthA, lengthB);
+    try (FileChannel channelA = FileChannel.open(a.toPath(), StandardOpenOption.READ);
+        FileChannel channelB = FileChannel.open(b.toPath(), StandardOpenOption.READ)) {
+      for (long position = 0; position < common; position += CHUNK_SIZE) {
+        long size = Math.min(CHUNK_SIZE, common - position);
+        MappedByteBuffer bufferA = channelA.map(FileChannel.MapMode.READ_ONLY, position, size);
+        MappedByteBuffer bufferB = channelB.map(FileChannel.MapMode.READ_ONLY, position, size);
+        int index = bufferA.mismatch(bufferB);
+        if (index >= 0)
+          return position + index;
+      }
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+    return (lengthA == lengthB) ? -1 : common;
+  }
+
+  /**
+   * Describe how two files (expected and received) differ, or return null if
+   * they don't
+   */
+  public static String describeDifference(File expected, File received) {
+    long offset = mismatch(expected, received);
+    if (offset < 0)
+      return null;
+    String description = "...files differ at offset " + offset;
+    if (expected.length() != received.length())
+      description += " (expected length " + expected.length() + ", received " + received.length() + ")";
+    return description;
+  }
+
+  private static final long CHUNK_SIZE = 16 << 20;
+}
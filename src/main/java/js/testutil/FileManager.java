@@ -28,12 +28,15 @@ import static js.base.Tools.*;
 import static org.junit.Assert.*;
 
 import java.io.File;
-import java.util.Arrays;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.IntSupplier;
 
 import js.base.BasePrinter;
-import js.base.SystemCall;
-import js.file.DirWalk;
 import js.file.Files;
 import js.json.JSMap;
 
@@ -44,8 +47,18 @@ final class FileManager {
 
   public static final File UNIT_TEST_DIRECTORY = new File("unit_test");
 
+  /**
+   * Files within the unit test directory that record information about local
+   * test runs (see TestHistory, OutcomeCache, TimingReport, HashIndex), and
+   * shouldn't be checked in
+   */
+  private static final String[] LOCAL_STATE_FILENAMES = { "_test_history_.json", "_outcome_cache_.json",
+      "_timing_report_.json", "_hash_index_.bin" };
+
   public FileManager(MyTestCase unitTest) {
     mUnitTest = unitTest;
+    if (TestConfig.memoryGenerated())
+      mVirtualFiles = new TreeMap<>();
   }
 
   /**
@@ -55,31 +68,177 @@ final class FileManager {
     checkState(mGeneratedDir == null);
     Files.assertDirectoryExists(dir);
     mGeneratedDir = dir;
+    mGeneratedDirPrepared = true;
+    writeVirtualFiles(dir);
   }
 
+  /**
+   * Get the generated directory, creating it if necessary. Any files that have
+   * been written to the in-memory generated directory are written to it
+   */
   public File generatedDir() {
+    if (!mGeneratedDirPrepared) {
+      Trash.remakeDirs(generatedDirPath());
+      mGeneratedDirPrepared = true;
+      mGeneratedDirRemade = true;
+      writeVirtualFiles(mGeneratedDir);
+    }
+    return mGeneratedDir;
+  }
+
+  /**
+   * Determine if a directory is the generated directory, and was created
+   * afresh for this test (rather than being set by setGeneratedDir()); if so,
+   * its files will be replaced rather than modified by later runs, so they can
+   * safely be shared (e.g. hard linked) with a reference copy
+   */
+  boolean isFreshGeneratedDir(File dir) {
+    return mGeneratedDirRemade && dir.equals(mGeneratedDir);
+  }
+
+  /**
+   * Write a text file to the generated directory; if the in-memory generated
+   * directory is active, it is written there instead
+   */
+  public void writeGeneratedFile(String relativePath, String content) {
+    if (mVirtualFiles != null) {
+      mVirtualFiles.put(relativePath, content);
+      return;
+    }
+    Files.S.writeString(new File(generatedDir(), relativePath), content);
+  }
+
+  /**
+   * Get the location of the generated directory, without creating it
+   */
+  File generatedDirPath() {
     if (mGeneratedDir == null) {
       File unitTestDir = UNIT_TEST_DIRECTORY.getAbsoluteFile();
 
       // If no .gitignore file exists, create one (creating the directory as well if necessary);
-      // it will have the entry GENERATED_DIR_NAME
+      // it will have the entry GENERATED_DIR_NAME, as well as the files that record
+      // information about the local test runs
 
       final String GENERATED_DIR_NAME = "generated";
 
       File gitIgnoreFile = new File(unitTestDir, ".gitignore");
       if (!gitIgnoreFile.exists()) {
         Files.S.mkdirs(unitTestDir);
-        Files.S.writeString(gitIgnoreFile, GENERATED_DIR_NAME + "\n");
+        StringBuilder sb = new StringBuilder();
+        sb.append(GENERATED_DIR_NAME).append('\n');
+        for (String name : LOCAL_STATE_FILENAMES)
+          sb.append(name).append('\n');
+        Files.S.writeString(gitIgnoreFile, sb.toString());
       }
       File projectDir = new File(unitTestDir, GENERATED_DIR_NAME);
       String className = chomp(mUnitTest.getClass().getSimpleName(), "Test");
       String testName = chomp(mUnitTest.name(), "Test");
       mGeneratedDir = new File(projectDir, className + "/" + testName);
-      Files.S.remakeDirs(mGeneratedDir);
     }
     return mGeneratedDir;
   }
 
+  // ------------------------------------------------------------------
+  // In-memory generated directory
+  // ------------------------------------------------------------------
+
+  /**
+   * Write the in-memory files to a directory, and stop using the in-memory
+   * generated directory
+   */
+  private void writeVirtualFiles(File directory) {
+    if (mVirtualFiles == null)
+      return;
+    for (Map.Entry<String, String> ent : mVirtualFiles.entrySet()) {
+      File file = new File(directory, ent.getKey());
+      Files.S.mkdirs(Files.parent(file));
+      Files.S.writeString(file, ent.getValue());
+    }
+    mVirtualFiles = null;
+  }
+
+  /**
+   * Determine if we can calculate the summary of the generated directory from
+   * the in-memory files, i.e., they all lie within the top level of the
+   * directory, and are of a type whose hash is determined by its text
+   */
+  private boolean virtualSummaryAvailable() {
+    if (mVirtualFiles == null)
+      return false;
+    for (String path : mVirtualFiles.keySet()) {
+      if (path.contains("/") || path.startsWith("."))
+        return false;
+      String ext = Files.getExtension(new File(path));
+      if (!(ext.equals(Files.EXT_TEXT) || ext.equals(Files.EXT_JSON)))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Construct the same summary that MyTestUtils.dirSummary() would for the
+   * in-memory files, if they were written to the generated directory
+   */
+  private JSMap virtualSummary() {
+    JSMap m = map();
+    for (Map.Entry<String, String> ent : mVirtualFiles.entrySet())
+      m.putUnsafe(ent.getKey(), ent.getValue());
+    return m;
+  }
+
+  /**
+   * Calculate the same registry hash that DirSummaryWalker.registryHash()
+   * would for the in-memory files, if they were written to the generated
+   * directory
+   */
+  private int virtualRegistryHash() {
+    CanonicalDigest digest = CanonicalDigest.streaming();
+    digest.beginMap();
+    for (Map.Entry<String, String> ent : mVirtualFiles.entrySet()) {
+      MessageDigest fileDigest = Digests.newDigest();
+      Digests.update(fileDigest, ent.getValue());
+      digest.mapKey(ent.getKey());
+      digest.value(Digests.hex(fileDigest.digest()));
+    }
+    digest.endMap();
+    return digest.registryHash();
+  }
+
+  /**
+   * Record the digest of a generated file whose content is known to have that
+   * digest (e.g. captured output, which was digested as it was written), so
+   * it needn't be read again to calculate the directory's hash code
+   */
+  public void recordDigest(File file, String digest) {
+    file = file.getAbsoluteFile();
+    mKnownDigests.put(file, new KnownDigest(file, digest));
+  }
+
+  /**
+   * Get the recorded digest of a file, or null if there is none, or the file
+   * has changed since it was recorded
+   */
+  private String knownDigest(File file) {
+    file = file.getAbsoluteFile();
+    KnownDigest entry = mKnownDigests.get(file);
+    if (entry == null || entry.mLength != file.length() || entry.mModified != file.lastModified())
+      return null;
+    return entry.mDigest;
+  }
+
+  private static final class KnownDigest {
+
+    KnownDigest(File file, String digest) {
+      mLength = file.length();
+      mModified = file.lastModified();
+      mDigest = digest;
+    }
+
+    final long mLength;
+    final long mModified;
+    final String mDigest;
+  }
+
   /**
    * Replace any old hash for current unit test with the value we end up with
    */
@@ -94,15 +253,23 @@ final class FileManager {
     if (mUnitTest.verbose())
       createInspectionDir();
     try {
-      JSMap jsonMap = MyTestUtils.dirSummary(generatedDir());
-      // Convert hash code to one using exactly four digits
-      int currentHash = (jsonMap.hashCode() & 0xffff) % 9000 + 1000;
-      HashCodeRegistry registry = HashCodeRegistry.registryFor(mUnitTest);
-      if (!registry.verifyHash(mUnitTest.name(), currentHash, mInvalidateOldHash)) {
+      boolean virtual = virtualSummaryAvailable();
+      DirSummaryWalker walker = virtual ? null
+          : new DirSummaryWalker(generatedDir(), null, null).withKnownDigests(this::knownDigest);
+      IntSupplier legacyHash = () -> {
+        int summaryHash = virtual ? virtualSummary().hashCode() : walker.summaryHashCode();
+        // Convert hash code to one using exactly four digits
+        return (summaryHash & 0xffff) % 9000 + 1000;
+      };
+      IntSupplier digestHash = () -> virtual ? virtualRegistryHash() : walker.registryHash();
+      if (!mUnitTest.verifyHash(legacyHash, digestHash, mInvalidateOldHash)) {
+        JSMap jsonMap = virtualSummaryAvailable() ? virtualSummary() : MyTestUtils.dirSummary(generatedDir());
         fail(BasePrinter.toString("\nUnexpected hash value for directory contents:", CR, DASHES, CR, //
             jsonMap, CR, DASHES, CR));
       }
     } catch (Throwable t) {
+      // Make sure the output is on disk, so it can be examined
+      generatedDir();
       showDiffs();
       throw t;
     }
@@ -110,68 +277,113 @@ final class FileManager {
   }
 
   /**
-   * Display diff of generated directory and its reference version
+   * Display diff of generated directory and its reference version, if verbose
    */
   private void showDiffs() {
-
-    File refDir = referenceDir();
-    if (!refDir.exists())
+    if (TestConfig.blobStore()) {
+      showManifestDiffs();
+      return;
+    }
+    if (!mUnitTest.verbose())
       return;
 
-    Set<File> relFiles = hashSet();
-
-    DirWalk dirWalk = new DirWalk(refDir).withRecurse(true).omitNames(".DS_Store");
-    relFiles.addAll(dirWalk.filesRelative());
-    dirWalk = new DirWalk(generatedDir()).withRecurse(true).omitNames(".DS_Store");
-    relFiles.addAll(dirWalk.filesRelative());
-
-    for (File fileReceived : relFiles) {
-      File fileRecAbs = dirWalk.abs(fileReceived);
-      File fileRefAbs = new File(refDir, fileReceived.getPath());
+    // If the reference copy has been packed into an archive, compare with a temporary copy of it
+    File archiveFile = PackedArchive.archiveFileFor(referenceDir());
+    if (referenceDir().exists() || !archiveFile.exists()) {
+      showDiffs(referenceDir());
+      return;
+    }
+    File unpacked = PackedArchive.unpackTemporaryCopy(archiveFile);
+    try {
+      showDiffs(unpacked);
+    } finally {
+      Trash.discard(unpacked);
+    }
+  }
 
-      if (fileRefAbs.exists() && fileRecAbs.exists()
-          && Arrays.equals(Files.toByteArray(fileRecAbs, null), Files.toByteArray(fileRefAbs, null)))
-        continue;
+  private void showDiffs(File refDir) {
+    if (!refDir.exists())
+      return;
 
-      if (!mUnitTest.verbose())
-        continue;
+    // Compare the Merkle trees of the two directories to find the subtrees that differ, so
+    // we only need to examine those (and the reference files' digests are probably cached)
+    Set<String> ignored = hashSetWith(".DS_Store");
+    List<String> changedPaths = arrayList();
+    MerkleSummary.compare(MerkleSummary.build(refDir, ignored), MerkleSummary.build(generatedDir(), ignored),
+        "", changedPaths);
+    if (changedPaths.isEmpty())
+      return;
+    pr("Generated files that differ from the reference copy:", INDENT, changedPaths);
 
+    // Describe the changed files concurrently, and print the descriptions in order
+    File genDir = generatedDir();
+    for (String report : LineDiff.reportAll(changedPaths, (path) -> describeChange(refDir, genDir, path))) {
       pr(CR,
           "------------------------------------------------------------------------------------------------");
-      pr(fileReceived);
-
-      if (!fileRefAbs.exists()) {
-        pr("...unexpected file");
-        continue;
-      }
-      if (!fileRecAbs.exists()) {
-        pr("...file has disappeared");
-        continue;
-      }
-
-      // If it looks like a text file, call the 'diff' utility to display differences.
-      // Otherwise, only do this (using binary mode) if in verbose mode
-      //
-      String ext = Files.getExtension(fileReceived);
+      pr(report);
+    }
+  }
 
-      boolean isTextFile = sTextFileExtensions.contains(ext);
+  /**
+   * Display the differences between the generated directory and the reference
+   * manifest, comparing the digests of their files (if verbose)
+   */
+  private void showManifestDiffs() {
+    File manifestFile = referenceManifestFile();
+    if (!mUnitTest.verbose() || !manifestFile.exists())
+      return;
+    JSMap reference = JSMap.from(manifestFile);
+    File genDir = generatedDir();
+    JSMap current = BlobStore.manifest(genDir);
+
+    Set<String> paths = new TreeSet<>(reference.keySet());
+    paths.addAll(current.keySet());
+    List<String> changedPaths = arrayList();
+    for (String path : paths)
+      if (!reference.opt(path, "").equals(current.opt(path, "")))
+        changedPaths.add(path);
+    if (changedPaths.isEmpty())
+      return;
+    pr("Generated files that differ from the reference copy:", INDENT, changedPaths);
 
-      SystemCall sc = new SystemCall().arg("diff");
-      if (isTextFile)
-        sc.arg("--text"); // "Treat all files as text."
+    for (String report : LineDiff.reportAll(changedPaths, (path) -> {
+      String digest = reference.opt(path, "");
+      return describeFileChange(path, digest.isEmpty() ? null : BlobStore.blobFile(digest),
+          new File(genDir, path));
+    })) {
+      pr(CR,
+          "------------------------------------------------------------------------------------------------");
+      pr(report);
+    }
+  }
 
-      if (true) {
-        sc.arg("-C", "2");
-      } else {
-        sc.arg("--side-by-side"); //  "Output in two columns."
-      }
-      sc.arg(fileRefAbs, fileRecAbs);
-      pr();
-      pr(sc.systemOut());
-      // It is returning 2 if it encounters binary files (e.g. xxx.zip), which is problematic
-      if (sc.exitCode() > 2)
-        badState("System call failed:", INDENT, sc);
+  private static String describeChange(File refDir, File genDir, String path) {
+    if (path.endsWith("/")) {
+      if (new File(refDir, path).exists())
+        return path + "\n...directory has disappeared";
+      return path + "\n...unexpected directory";
     }
+    return describeFileChange(path, new File(refDir, path), new File(genDir, path));
+  }
+
+  /**
+   * Describe how a generated file differs from its reference version; either
+   * may not exist (or be null)
+   */
+  private static String describeFileChange(String path, File fileRefAbs, File fileRecAbs) {
+    String prefix = path + "\n";
+    if (fileRefAbs == null || !fileRefAbs.exists())
+      return prefix + "...unexpected file";
+    if (!fileRecAbs.exists())
+      return prefix + "...file has disappeared";
+
+    // If it looks like a text file, display the differences between its lines.
+    // Otherwise, report where the files first differ
+    //
+    String ext = Files.getExtension(new File(path));
+    if (!sTextFileExtensions.contains(ext))
+      return prefix + FileComparison.describeDifference(fileRefAbs, fileRecAbs);
+    return prefix + CR + LineDiff.diff(fileRefAbs, fileRecAbs);
   }
 
   private static final Set<String> sTextFileExtensions = hashSetWith(Files.EXT_TEXT, Files.EXT_JSON, "java",
@@ -188,35 +400,100 @@ final class FileManager {
    * value (or no previous value exists).
    */
   private void saveTestResults() {
+    if (TestConfig.blobStore()) {
+      saveTestResultsToStore();
+      return;
+    }
+
     // If we're going to replace the hash in any case, delete any existing reference directory,
     // since its old contents may correspond to an older hash code
-    if (mInvalidateOldHash)
-      Files.S.deleteDirectory(referenceDir());
+    if (mInvalidateOldHash) {
+      Trash.discard(referenceDir());
+      File archiveFile = PackedArchive.archiveFileFor(referenceDir());
+      if (archiveFile.exists())
+        Files.S.deleteFile(archiveFile);
+    }
+    // A reference copy that has been packed into an archive counts as existing
+    boolean referenceExists = referenceDir().exists() || PackedArchive.archiveFileFor(referenceDir()).exists();
+
+    if (mVirtualFiles != null) {
+      // The generated directory was never written to disk, though a stale one may remain from an 
+      // earlier run
+      if (generatedDirPath().exists())
+        Trash.discard(generatedDirPath());
+      if (!referenceExists)
+        writeVirtualFiles(referenceDir());
+      return;
+    }
 
-    if (!referenceDir().exists())
-      Files.S.moveDirectory(generatedDir(), referenceDir());
+    if (!referenceExists)
+      Snapshots.move(generatedDir(), referenceDir());
     else
-      Files.S.deleteDirectory(generatedDir());
+      Trash.discard(generatedDir());
+  }
+
+  /**
+   * Version of saveTestResults() that stores the reference copy's files in the
+   * BlobStore, writing a manifest in place of the _REF directory
+   */
+  private void saveTestResultsToStore() {
+    File manifestFile = referenceManifestFile();
+    if (mInvalidateOldHash && manifestFile.exists())
+      Files.S.deleteFile(manifestFile);
+
+    if (manifestFile.exists()) {
+      mVirtualFiles = null;
+      if (generatedDirPath().exists())
+        Trash.discard(generatedDirPath());
+      return;
+    }
+
+    JSMap manifest;
+    if (mVirtualFiles != null) {
+      manifest = map();
+      for (Map.Entry<String, String> ent : mVirtualFiles.entrySet())
+        manifest.put(ent.getKey(), BlobStore.storeString(ent.getValue()));
+      mVirtualFiles = null;
+      if (generatedDirPath().exists())
+        Trash.discard(generatedDirPath());
+    } else {
+      manifest = BlobStore.storeDirectory(generatedDir(), true);
+      Trash.discard(generatedDir());
+    }
+    Files.S.writeString(manifestFile, manifest.prettyPrint());
+  }
+
+  /**
+   * Get the manifest that replaces the _REF directory when the BlobStore is
+   * in use
+   */
+  private File referenceManifestFile() {
+    return new File(Files.parent(generatedDirPath()), generatedDirPath().getName() + "_REF.json");
   }
 
   /**
    * Save a copy of the generated directory to a subdirectory of the user's
-   * Desktop, for convenience
+   * Desktop, for convenience. This is done in the background, copying only
+   * files that have changed
    */
   private void createInspectionDir() {
     File destination = Files.getDesktopFile("unit_test_inspections/" + mUnitTest.name());
-    Files.S.mkdirs(destination);
-    Files.S.copyDirectory(generatedDir(), destination);
+    mUnitTest.awaitOnTearDown(DirSync.syncInBackground(generatedDir(), destination, false, null,
+        "createInspectionDir()"));
   }
 
   private File referenceDir() {
     if (mReferenceDir == null)
-      mReferenceDir = new File(Files.parent(generatedDir()), generatedDir().getName() + "_REF");
+      mReferenceDir = new File(Files.parent(generatedDirPath()), generatedDirPath().getName() + "_REF");
     return mReferenceDir;
   }
 
   private final MyTestCase mUnitTest;
   private boolean mInvalidateOldHash;
   private File mGeneratedDir;
+  private boolean mGeneratedDirPrepared;
+  private boolean mGeneratedDirRemade;
   private File mReferenceDir;
+  private Map<String, String> mVirtualFiles;
+  private final Map<File, KnownDigest> mKnownDigests = hashMap();
 }
@@ -29,7 +29,6 @@ import static js.base.Tools.*;
 import java.io.File;
 import java.util.Map;
 
-import js.file.Files;
 import js.base.BaseObject;
 import js.json.JSMap;
 
@@ -44,25 +43,42 @@ final class HashCodeRegistry extends BaseObject {
    * safe
    */
   public static HashCodeRegistry registryFor(MyTestCase testCase) {
-    String key = testCase.getClass().getSimpleName();
-    HashCodeRegistry registry = sClassesMap.get(key);
-    if (registry == null) {
-      synchronized (HashCodeRegistry.class) {
-        registry = new HashCodeRegistry(key);
-        sClassesMap.put(key, registry);
-      }
-    }
-    return registry;
+    return registryFor(testCase.getClass());
+  }
+
+  public static HashCodeRegistry registryFor(Class<?> testClass) {
+    String key = testClass.getSimpleName();
+    return sClassesMap.computeIfAbsent(key, (k) -> new HashCodeRegistry(k));
   }
 
   private static Map<String, HashCodeRegistry> sClassesMap = concurrentHashMap();
 
+  /**
+   * Write any registries that have been modified. Updates are coalesced, and
+   * written when a test class has finished running (or when the JVM shuts down)
+   */
+  public static void flushAll() {
+    for (HashCodeRegistry registry : sClassesMap.values())
+      registry.flush();
+  }
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> flushAll()));
+  }
+
   // ------------------------------------------------------------------
 
   private HashCodeRegistry(String key) {
     mKey = key;
     mFile = new File(FileManager.UNIT_TEST_DIRECTORY, mKey.replace('.', '_') + ".json");
-    mMap = JSMap.fromFileIfExists(mFile);
+    if (TestConfig.hashIndex()) {
+      // Look up hash codes in the index instead of parsing the JSON file
+      mIndex = HashIndex.sharedInstance();
+      mMap = map();
+    } else {
+      mIndex = null;
+      mMap = JSMap.fromFileIfExists(mFile);
+    }
   }
 
   @Override
@@ -75,31 +91,66 @@ final class HashCodeRegistry extends BaseObject {
     return mKey;
   }
 
+  /**
+   * Get the hash code registered for a unit test, or -1 if there is none
+   */
+  public int expectedHash(String unitTestName) {
+    synchronized (mMap) {
+      return lookup(unitTestName);
+    }
+  }
+
   public boolean verifyHash(String unitTestName, int hash, boolean replaceExistingHash) {
-    int expectedHash = mMap.opt(unitTestName, -1);
+    // Tests of the same class may be running concurrently, so guard both the read and the update
+    synchronized (mMap) {
+      int expectedHash = lookup(unitTestName);
 
-    log("verifyHash", unitTestName, "expected:", expectedHash, "got:", hash);
+      log("verifyHash", unitTestName, "expected:", expectedHash, "got:", hash);
 
-    if (expectedHash < 0 || replaceExistingHash) {
-      synchronized (mMap) {
+      if (expectedHash < 0 || replaceExistingHash) {
         pr("Updating unit test hash", mKey + "." + unitTestName, "=>", hash);
         mMap.put(unitTestName, hash);
-        write();
+        mUpdates.put(unitTestName, hash);
         expectedHash = hash;
       }
+      return expectedHash == hash;
+    }
+  }
+
+  /**
+   * Write the registry, if it has been modified
+   */
+  public void flush() {
+    synchronized (mMap) {
+      if (mUpdates.isEmpty())
+        return;
+      log("write registry", INDENT, mMap);
+      // Other processes (e.g. other shards) may be updating the same file, so write only the
+      // hash codes that we've changed
+      Runnable jsonWriter = () -> SharedJsonFile.update(mFile, (m) -> {
+        for (Map.Entry<String, Integer> ent : mUpdates.entrySet())
+          m.put(ent.getKey(), ent.getValue());
+      });
+      // The index is written only here, after the JSON file (and under the index's lock), so it
+      // never holds hash codes that the JSON files don't
+      if (mIndex != null)
+        mIndex.update(mKey, mUpdates, jsonWriter);
+      else
+        jsonWriter.run();
+      mUpdates.clear();
     }
-    return expectedHash == hash;
   }
 
-  private void write() {
-    log("write registry", INDENT, mMap);
-    File dir = Files.parent(mFile);
-    if (!dir.exists())
-      Files.S.mkdirs(dir);
-    Files.S.writeString(mFile, mMap.prettyPrint());
+  private int lookup(String unitTestName) {
+    // Hash codes that haven't been flushed are not yet in the index
+    if (mIndex != null && !mUpdates.containsKey(unitTestName))
+      return mIndex.get(mKey, unitTestName);
+    return mMap.opt(unitTestName, -1);
   }
 
   private final String mKey;
   private final File mFile;
   private final JSMap mMap;
+  private final HashIndex mIndex;
+  private final Map<String, Integer> mUpdates = hashMap();
 }
@@ -0,0 +1,419 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import js.file.Files;
+import js.json.JSMap;
+
+/**
+ * A single binary file containing the hash codes of every unit test, as an
+ * alternative to parsing a JSON file for each test class.
+ * 
+ * The file is memory-mapped, and is an open-addressing hash table keyed by
+ * (class name, test name); updates to existing entries are made in place. The
+ * per-class JSON files remain the version-controlled form of the hash codes;
+ * the index is rebuilt from them whenever any of them is newer than it, or if
+ * it was left marked as dirty by an update that didn't complete. Updates are
+ * made while holding a cross-process lock (see SharedJsonFile), since other
+ * processes (e.g. other shards) may be using the same index.
+ * 
+ * File layout (all integers big-endian):
+ * 
+ * <pre>
+ * 
+ *   header:   magic, version, capacity, count, strings used, strings capacity, dirty (ints); 4 bytes reserved
+ * 
+ *   slots:    [capacity] x { key (long; 0 if empty), hash code (int), name offset (int) }
+ * 
+ *   strings:  { length (short), UTF-8 bytes of "[class name] TAB [test name]" }...
+ * 
+ * </pre>
+ * 
+ * Run main() with argument "import" to build the index from the JSON files, or
+ * "export" to write the JSON files from the index.
+ */
+public final class HashIndex {
+
+  public static void main(String[] args) {
+    loadTools();
+    String command = (args.length == 1) ? args[0] : "";
+    File unitTestDir = FileManager.UNIT_TEST_DIRECTORY;
+    File indexFile = defaultIndexFile();
+    switch (command) {
+    case "import":
+      importJson(unitTestDir, indexFile);
+      break;
+    case "export":
+      exportJson(indexFile, unitTestDir);
+      break;
+    default:
+      pr("Usage: HashIndex import | export");
+      break;
+    }
+  }
+
+  static File defaultIndexFile() {
+    return new File(FileManager.UNIT_TEST_DIRECTORY, "_hash_index_.bin");
+  }
+
+  /**
+   * Get the index for the unit_test directory, building it from the JSON files
+   * if it is missing or out of date
+   */
+  static HashIndex sharedInstance() {
+    if (sInstance == null) {
+      synchronized (HashIndex.class) {
+        if (sInstance == null) {
+          File indexFile = defaultIndexFile();
+          SharedJsonFile.withLock(indexFile, () -> {
+            if (needsImport(indexFile))
+              importJson(FileManager.UNIT_TEST_DIRECTORY, indexFile);
+          });
+          sInstance = new HashIndex(indexFile);
+        }
+      }
+    }
+    return sInstance;
+  }
+
+  private static volatile HashIndex sInstance;
+
+  private static boolean needsImport(File indexFile) {
+    if (!indexFile.exists() || jsonNewerThan(FileManager.UNIT_TEST_DIRECTORY, indexFile))
+      return true;
+    return new HashIndex(indexFile).mBuffer.getInt(OFFSET_DIRTY) != 0;
+  }
+
+  /**
+   * Build an index from the registry JSON files within a directory
+   */
+  static void importJson(File unitTestDir, File indexFile) {
+    Map<String, Integer> entries = new TreeMap<>();
+    for (File f : registryFiles(unitTestDir)) {
+      String className = chomp(f.getName(), ".json");
+      JSMap m = JSMap.from(f);
+      for (String testName : m.keySet())
+        entries.put(className + SEPARATOR + testName, m.getInt(testName));
+    }
+    writeIndex(indexFile, entries, false);
+  }
+
+  /**
+   * Write the registry JSON files within a directory from an index
+   */
+  static void exportJson(File indexFile, File unitTestDir) {
+    HashIndex index = new HashIndex(indexFile);
+    Map<String, JSMap> classMaps = new TreeMap<>();
+    for (Map.Entry<String, Integer> ent : index.entries().entrySet()) {
+      String[] names = splitKey(ent.getKey());
+      JSMap m = classMaps.get(names[0]);
+      if (m == null) {
+        m = map();
+        classMaps.put(names[0], m);
+      }
+      m.put(names[1], ent.getValue());
+    }
+    for (Map.Entry<String, JSMap> ent : classMaps.entrySet())
+      Files.S.writeString(new File(unitTestDir, ent.getKey() + ".json"), ent.getValue().prettyPrint());
+  }
+
+  // ------------------------------------------------------------------
+
+  HashIndex(File file) {
+    mFile = file;
+    mapFile();
+  }
+
+  /**
+   * Get the hash code for a test, or -1 if there is none
+   */
+  public synchronized int get(String className, String testName) {
+    String name = className + SEPARATOR + testName;
+    int slot = findSlot(name, keyFor(name));
+    if (mBuffer.getLong(slotPosition(slot)) == 0)
+      return -1;
+    return mBuffer.getInt(slotPosition(slot) + 8);
+  }
+
+  /**
+   * Store hash codes for a test class that are also being written to its JSON
+   * file (by jsonWriter). This is done while holding the index's lock; the
+   * index is marked as dirty until the JSON file has been written and the hash
+   * codes stored, so if the process dies partway through, the index is rebuilt
+   * from the JSON files rather than being left out of step with them
+   */
+  public synchronized void update(String className, Map<String, Integer> hashCodes, Runnable jsonWriter) {
+    SharedJsonFile.withLock(mFile, () -> {
+      // Another process may have replaced the file (e.g. to enlarge it)
+      mapFile();
+      setDirty(true);
+      jsonWriter.run();
+      for (Map.Entry<String, Integer> ent : hashCodes.entrySet())
+        put(className, ent.getKey(), ent.getValue());
+      setDirty(false);
+      // Make the index newer than the JSON file just written
+      mFile.setLastModified(System.currentTimeMillis());
+    });
+  }
+
+  /**
+   * Store the hash code for a test. If the test already has an entry, it is
+   * updated in place; otherwise, the index may need to be enlarged. Other
+   * processes may be using the index, so this should normally be called only
+   * via update()
+   */
+  public synchronized void put(String className, String testName, int hashCode) {
+    String name = className + SEPARATOR + testName;
+    long key = keyFor(name);
+    int slot = findSlot(name, key);
+    int pos = slotPosition(slot);
+    if (mBuffer.getLong(pos) != 0) {
+      mBuffer.putInt(pos + 8, hashCode);
+      return;
+    }
+
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    int count = mBuffer.getInt(OFFSET_COUNT);
+    int stringsUsed = mBuffer.getInt(OFFSET_STRINGS_USED);
+    if ((count + 1) > mCapacity * MAX_LOAD_FACTOR
+        || stringsUsed + 2 + nameBytes.length > mBuffer.getInt(OFFSET_STRINGS_CAPACITY)) {
+      Map<String, Integer> entries = entries();
+      entries.put(name, hashCode);
+      writeIndex(mFile, entries, mBuffer.getInt(OFFSET_DIRTY) != 0);
+      mapFile();
+      return;
+    }
+
+    int stringPos = stringsPosition() + stringsUsed;
+    mBuffer.putShort(stringPos, (short) nameBytes.length);
+    for (int i = 0; i < nameBytes.length; i++)
+      mBuffer.put(stringPos + 2 + i, nameBytes[i]);
+    mBuffer.putInt(OFFSET_STRINGS_USED, stringsUsed + 2 + nameBytes.length);
+
+    mBuffer.putInt(pos + 8, hashCode);
+    mBuffer.putInt(pos + 12, stringsUsed);
+    mBuffer.putLong(pos, key);
+    mBuffer.putInt(OFFSET_COUNT, count + 1);
+  }
+
+  /**
+   * Force any changes to be written to the filesystem
+   */
+  public synchronized void force() {
+    mBuffer.force();
+  }
+
+  private void setDirty(boolean dirty) {
+    mBuffer.putInt(OFFSET_DIRTY, dirty ? 1 : 0);
+    mBuffer.force();
+  }
+
+  /**
+   * Get every entry in the index, keyed by "[class name] TAB [test name]"
+   */
+  private Map<String, Integer> entries() {
+    Map<String, Integer> entries = new TreeMap<>();
+    for (int slot = 0; slot < mCapacity; slot++) {
+      int pos = slotPosition(slot);
+      if (mBuffer.getLong(pos) == 0)
+        continue;
+      entries.put(readName(mBuffer.getInt(pos + 12)), mBuffer.getInt(pos + 8));
+    }
+    return entries;
+  }
+
+  /**
+   * Find the slot containing a name, or the empty slot where it should be
+   * stored
+   */
+  private int findSlot(String name, long key) {
+    int mask = mCapacity - 1;
+    int slot = (int) (key ^ (key >>> 32)) & mask;
+    while (true) {
+      int pos = slotPosition(slot);
+      long slotKey = mBuffer.getLong(pos);
+      if (slotKey == 0)
+        return slot;
+      if (slotKey == key && readName(mBuffer.getInt(pos + 12)).equals(name))
+        return slot;
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private String readName(int stringOffset) {
+    int pos = stringsPosition() + stringOffset;
+    int length = mBuffer.getShort(pos) & 0xffff;
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++)
+      bytes[i] = mBuffer.get(pos + 2 + i);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private int stringsPosition() {
+    return slotPosition(mCapacity);
+  }
+
+  private static int slotPosition(int slot) {
+    return HEADER_SIZE + slot * SLOT_SIZE;
+  }
+
+  private void mapFile() {
+    try (FileChannel channel = FileChannel.open(mFile.toPath(), StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      mBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+    if (mBuffer.getInt(OFFSET_MAGIC) != MAGIC || mBuffer.getInt(OFFSET_VERSION) != VERSION)
+      throw badState("Not a hash index:", mFile);
+    mCapacity = mBuffer.getInt(OFFSET_CAPACITY);
+  }
+
+  /**
+   * Write a new index file containing some entries, with room for more
+   */
+  private static void writeIndex(File file, Map<String, Integer> entries, boolean dirty) {
+    int capacity = 64;
+    while (capacity * MAX_LOAD_FACTOR < entries.size() * 2)
+      capacity *= 2;
+    int stringsSize = 0;
+    for (String name : entries.keySet())
+      stringsSize += 2 + name.getBytes(StandardCharsets.UTF_8).length;
+    int stringsCapacity = Math.max(4096, stringsSize * 2);
+
+    ByteBuffer buffer = ByteBuffer.allocate(slotPosition(capacity) + stringsCapacity);
+    buffer.putInt(OFFSET_MAGIC, MAGIC);
+    buffer.putInt(OFFSET_VERSION, VERSION);
+    buffer.putInt(OFFSET_CAPACITY, capacity);
+    buffer.putInt(OFFSET_STRINGS_CAPACITY, stringsCapacity);
+    buffer.putInt(OFFSET_DIRTY, dirty ? 1 : 0);
+
+    int stringsUsed = 0;
+    int mask = capacity - 1;
+    for (Map.Entry<String, Integer> ent : entries.entrySet()) {
+      byte[] nameBytes = ent.getKey().getBytes(StandardCharsets.UTF_8);
+      long key = keyFor(ent.getKey());
+      int slot = (int) (key ^ (key >>> 32)) & mask;
+      while (buffer.getLong(slotPosition(slot)) != 0)
+        slot = (slot + 1) & mask;
+      int pos = slotPosition(slot);
+      buffer.putLong(pos, key);
+      buffer.putInt(pos + 8, ent.getValue());
+      buffer.putInt(pos + 12, stringsUsed);
+
+      int stringPos = slotPosition(capacity) + stringsUsed;
+      buffer.putShort(stringPos, (short) nameBytes.length);
+      for (int i = 0; i < nameBytes.length; i++)
+        buffer.put(stringPos + 2 + i, nameBytes[i]);
+      stringsUsed += 2 + nameBytes.length;
+    }
+    buffer.putInt(OFFSET_COUNT, entries.size());
+    buffer.putInt(OFFSET_STRINGS_USED, stringsUsed);
+
+    File tempFile = new File(file.getPath() + ".tmp");
+    try {
+      java.nio.file.Files.write(tempFile.toPath(), buffer.array());
+      java.nio.file.Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+  }
+
+  /**
+   * Calculate the 64-bit FNV-1a hash of a name; zero is reserved for empty
+   * slots
+   */
+  private static long keyFor(String name) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= (b & 0xff);
+      hash *= 0x100000001b3L;
+    }
+    if (hash == 0)
+      hash = 1;
+    return hash;
+  }
+
+  private static String[] splitKey(String key) {
+    int cursor = key.indexOf(SEPARATOR);
+    return new String[] { key.substring(0, cursor), key.substring(cursor + 1) };
+  }
+
+  /**
+   * Get the per-class registry files within a directory; we skip the ones
+   * starting with '_', which we use for other purposes
+   */
+  private static List<File> registryFiles(File unitTestDir) {
+    List<File> result = arrayList();
+    File[] files = unitTestDir.listFiles();
+    if (files != null)
+      for (File f : files)
+        if (f.isFile() && f.getName().endsWith(".json") && !f.getName().startsWith("_"))
+          result.add(f);
+    return result;
+  }
+
+  private static boolean jsonNewerThan(File unitTestDir, File indexFile) {
+    long indexTime = indexFile.lastModified();
+    for (File f : registryFiles(unitTestDir))
+      if (f.lastModified() > indexTime)
+        return true;
+    return false;
+  }
+
+  private static final int MAGIC = 0x48434958; // "HCIX"
+  private static final int VERSION = 1;
+  private static final char SEPARATOR = '\t';
+
+  private static final int OFFSET_MAGIC = 0;
+  private static final int OFFSET_VERSION = 4;
+  private static final int OFFSET_CAPACITY = 8;
+  private static final int OFFSET_COUNT = 12;
+  private static final int OFFSET_STRINGS_USED = 16;
+  private static final int OFFSET_STRINGS_CAPACITY = 20;
+  private static final int OFFSET_DIRTY = 24;
+  private static final int HEADER_SIZE = 32;
+  private static final int SLOT_SIZE = 16;
+  private static final double MAX_LOAD_FACTOR = 0.6;
+
+  private final File mFile;
+  private MappedByteBuffer mBuffer;
+  private int mCapacity;
+}
@@ -0,0 +1,280 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+import js.file.Files;
+
+/**
+ * Compares text files line by line using the Myers O(ND) algorithm, producing
+ * output in the style of 'diff -u'. The comparison gives up if the files
+ * differ in too many lines, and the output is limited in size
+ */
+final class LineDiff {
+
+  /**
+   * Describe the differences between two text files (expected and received)
+   */
+  public static String diff(File expected, File received) {
+    return diff(expected, received, MAX_OUTPUT_LINES);
+  }
+
+  public static String diff(File expected, File received, int maxOutputLines) {
+    return diff(readLines(expected), readLines(received), expected.getPath(), received.getPath(),
+        maxOutputLines);
+  }
+
+  public static String diff(List<String> expected, List<String> received, String expectedLabel,
+      String receivedLabel, int maxOutputLines) {
+    return new LineDiff(expected, received, maxOutputLines).format(expectedLabel, receivedLabel);
+  }
+
+  /**
+   * Generate reports for a list of items concurrently, returning them in the
+   * same order as the items
+   */
+  public static <T> List<String> reportAll(List<T> items, Function<T, String> reporter) {
+    List<ForkJoinTask<String>> tasks = arrayList();
+    for (T item : items)
+      tasks.add(ForkJoinTask.adapt(() -> reporter.apply(item)));
+    ForkJoinTask.invokeAll(tasks);
+    List<String> reports = arrayList();
+    for (ForkJoinTask<String> task : tasks)
+      reports.add(task.join());
+    return reports;
+  }
+
+  private static List<String> readLines(File file) {
+    String text = new String(Files.toByteArray(file, null), StandardCharsets.UTF_8);
+    return Arrays.asList(text.split("\n", -1));
+  }
+
+  private LineDiff(List<String> a, List<String> b, int maxOutputLines) {
+    mA = a;
+    mB = b;
+    mMaxOutputLines = maxOutputLines;
+  }
+
+  private String format(String labelA, String labelB) {
+    int n = mA.size();
+    int m = mB.size();
+
+    // Lines common to the start or end of both files don't need to be examined by the algorithm
+    int prefix = 0;
+    while (prefix < n && prefix < m && mA.get(prefix).equals(mB.get(prefix)))
+      prefix++;
+    int suffix = 0;
+    while (suffix < n - prefix && suffix < m - prefix && mA.get(n - 1 - suffix).equals(mB.get(m - 1 - suffix)))
+      suffix++;
+
+    mOps = new StringBuilder();
+    if (!calculateEdits(prefix, n - suffix, prefix, m - suffix))
+      return "...files differ in more than " + MAX_EDIT_DISTANCE + " lines";
+    if (mOps.length() == 0)
+      return "...files have the same lines";
+
+    // Construct the full edit script, including the common prefix and suffix
+    StringBuilder ops = new StringBuilder(n + m);
+    for (int i = 0; i < prefix; i++)
+      ops.append(' ');
+    ops.append(mOps.reverse());
+    for (int i = 0; i < suffix; i++)
+      ops.append(' ');
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("--- ").append(labelA).append('\n');
+    sb.append("+++ ").append(labelB).append('\n');
+    mOutputLines = 0;
+    int opCount = ops.length();
+    int opIndex = 0;
+    int lineA = 0;
+    int lineB = 0;
+    while (opIndex < opCount) {
+      // Find the next change
+      int changeStart = opIndex;
+      while (changeStart < opCount && ops.charAt(changeStart) == ' ')
+        changeStart++;
+      if (changeStart == opCount)
+        break;
+      lineA += changeStart - opIndex;
+      lineB += changeStart - opIndex;
+
+      // Extend the hunk until there's a run of unchanged lines too long to include as context
+      int hunkEnd = changeStart;
+      while (true) {
+        while (hunkEnd < opCount && ops.charAt(hunkEnd) != ' ')
+          hunkEnd++;
+        int next = hunkEnd;
+        while (next < opCount && ops.charAt(next) == ' ')
+          next++;
+        if (next == opCount || next - hunkEnd > 2 * CONTEXT)
+          break;
+        hunkEnd = next;
+      }
+
+      // (the previous hunk ended with more than twice the context length of unchanged lines,
+      // so our leading context doesn't overlap its trailing context)
+      int before = Math.min(CONTEXT, changeStart - opIndex);
+      int after = 0;
+      while (after < CONTEXT && hunkEnd + after < opCount && ops.charAt(hunkEnd + after) == ' ')
+        after++;
+
+      int startA = lineA - before;
+      int startB = lineB - before;
+      int lengthA = before + after;
+      int lengthB = before + after;
+      for (int i = changeStart; i < hunkEnd; i++) {
+        char op = ops.charAt(i);
+        if (op != '+')
+          lengthA++;
+        if (op != '-')
+          lengthB++;
+      }
+      // (by convention, an empty range is identified by the line preceding it)
+      int firstA = (lengthA == 0) ? startA : startA + 1;
+      int firstB = (lengthB == 0) ? startB : startB + 1;
+      if (!appendLine(sb, "@@ -" + firstA + "," + lengthA + " +" + firstB + "," + lengthB + " @@"))
+        break;
+
+      int a = startA;
+      int b = startB;
+      boolean full = false;
+      for (int i = changeStart - before; i < hunkEnd + after && !full; i++) {
+        char op = ops.charAt(i);
+        if (op == '-')
+          full = !appendLine(sb, "-" + mA.get(a++));
+        else if (op == '+')
+          full = !appendLine(sb, "+" + mB.get(b++));
+        else {
+          full = !appendLine(sb, " " + mA.get(a++));
+          b++;
+        }
+      }
+      if (full)
+        break;
+      lineA = a;
+      lineB = b;
+      opIndex = hunkEnd + after;
+    }
+    return sb.toString();
+  }
+
+  private boolean appendLine(StringBuilder sb, String line) {
+    if (mOutputLines == mMaxOutputLines) {
+      sb.append("...(output truncated)\n");
+      return false;
+    }
+    mOutputLines++;
+    sb.append(line).append('\n');
+    return true;
+  }
+
+  /**
+   * Find a shortest edit script transforming a[startA..endA) into
+   * b[startB..endB), appending its operations (' ', '-' or '+') to mOps in
+   * reverse order. Returns false if the edit distance exceeds the maximum
+   */
+  private boolean calculateEdits(int startA, int endA, int startB, int endB) {
+    int n = endA - startA;
+    int m = endB - startB;
+    int max = Math.min(n + m, MAX_EDIT_DISTANCE);
+    int offset = max + 1;
+    int[] v = new int[2 * max + 3];
+    List<int[]> trace = arrayList();
+
+    int finalD = -1;
+    outer: for (int d = 0; d <= max; d++) {
+      // Save the furthest reaching paths of the previous step, for backtracking
+      trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+      for (int k = -d; k <= d; k += 2) {
+        int x;
+        if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+          x = v[offset + k + 1];
+        else
+          x = v[offset + k - 1] + 1;
+        int y = x - k;
+        while (x < n && y < m && mA.get(startA + x).equals(mB.get(startB + y))) {
+          x++;
+          y++;
+        }
+        v[offset + k] = x;
+        if (x >= n && y >= m) {
+          finalD = d;
+          break outer;
+        }
+      }
+    }
+    if (finalD < 0)
+      return false;
+
+    int x = n;
+    int y = m;
+    for (int d = finalD; d > 0; d--) {
+      int[] prev = trace.get(d);
+      int k = x - y;
+      int prevK;
+      if (k == -d || (k != d && prev[k - 1 + d] < prev[k + 1 + d]))
+        prevK = k + 1;
+      else
+        prevK = k - 1;
+      int prevX = prev[prevK + d];
+      int prevY = prevX - prevK;
+      while (x > prevX && y > prevY) {
+        mOps.append(' ');
+        x--;
+        y--;
+      }
+      if (x == prevX)
+        mOps.append('+');
+      else
+        mOps.append('-');
+      x = prevX;
+      y = prevY;
+    }
+    while (x > 0) {
+      mOps.append(' ');
+      x--;
+    }
+    return true;
+  }
+
+  private static final int CONTEXT = 2;
+  private static final int MAX_EDIT_DISTANCE = 1000;
+  private static final int MAX_OUTPUT_LINES = 200;
+
+  private final List<String> mA;
+  private final List<String> mB;
+  private final int mMaxOutputLines;
+  private StringBuilder mOps;
+  private int mOutputLines;
+}
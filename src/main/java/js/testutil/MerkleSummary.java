@@ -0,0 +1,222 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import js.json.JSMap;
+
+/**
+ * Summarizes a directory tree as a Merkle tree: each file's digest is that of
+ * its contents, and each directory's digest is that of its (sorted) children's
+ * names and digests. Comparing two trees then identifies exactly which
+ * subtrees differ, while reading only the files necessary.
+ * 
+ * File digests are cached (persistently) by path, size and modification time,
+ * so files that haven't changed since an earlier run (e.g. those within
+ * reference directories) are not read again
+ */
+final class MerkleSummary {
+
+  /**
+   * A file, or a nonempty directory, within a tree
+   */
+  static final class Node {
+
+    Node(String name, List<Node> children) {
+      this.name = name;
+      this.children = children;
+    }
+
+    boolean isDirectory() {
+      return children != null;
+    }
+
+    final String name;
+    // Null if this is a file
+    final List<Node> children;
+    String digest;
+  }
+
+  /**
+   * Construct the tree for a directory, omitting files (or directories) with
+   * particular names, as well as empty directories; returns null if the
+   * directory is empty (or doesn't exist)
+   */
+  public static Node build(File dir, Set<String> ignored) {
+    List<Node> children = arrayList();
+    MessageDigest digest = Digests.newDigest();
+    File[] files = dir.listFiles();
+    if (files != null) {
+      List<File> sorted = arrayList();
+      for (File f : files)
+        sorted.add(f);
+      sorted.sort((a, b) -> a.getName().compareTo(b.getName()));
+      for (File f : sorted) {
+        if (ignored.contains(f.getName()))
+          continue;
+        Node child;
+        if (f.isDirectory()) {
+          child = build(f, ignored);
+          if (child == null)
+            continue;
+        } else {
+          child = new Node(f.getName(), null);
+          child.digest = fileDigest(f);
+        }
+        children.add(child);
+        Digests.update(digest, child.name);
+        Digests.update(digest, child.isDirectory() ? "/" : ":");
+        Digests.update(digest, child.digest);
+      }
+    }
+    if (children.isEmpty())
+      return null;
+    Node node = new Node(dir.getName(), children);
+    node.digest = Digests.hex(digest.digest());
+    return node;
+  }
+
+  /**
+   * Compare two trees (either of which can be null), and add the relative
+   * paths of the smallest subtrees that differ to a list. A directory that
+   * exists in only one of the trees is reported as a single path, ending with
+   * '/'
+   */
+  public static void compare(Node a, Node b, String prefix, List<String> output) {
+    Map<String, Node> aChildren = childMap(a);
+    Map<String, Node> bChildren = childMap(b);
+    Set<String> names = new TreeSet<>(aChildren.keySet());
+    names.addAll(bChildren.keySet());
+    for (String name : names) {
+      Node aChild = aChildren.get(name);
+      Node bChild = bChildren.get(name);
+      String path = prefix + name;
+      if (aChild != null && bChild != null && aChild.digest.equals(bChild.digest))
+        continue;
+      if (aChild != null && bChild != null && aChild.isDirectory() && bChild.isDirectory()) {
+        compare(aChild, bChild, path + "/", output);
+        continue;
+      }
+      Node existing = (aChild != null) ? aChild : bChild;
+      if ((aChild == null || bChild == null) && existing.isDirectory())
+        path += "/";
+      output.add(path);
+    }
+  }
+
+  private static Map<String, Node> childMap(Node node) {
+    Map<String, Node> result = hashMap();
+    if (node != null && node.isDirectory())
+      for (Node child : node.children)
+        result.put(child.name, child);
+    return result;
+  }
+
+  // ------------------------------------------------------------------
+  // Persistent cache of file digests
+  // ------------------------------------------------------------------
+
+  /**
+   * Get the digest of a file's contents, using the cached value if the file's
+   * size and modification time haven't changed
+   */
+  public static String fileDigest(File file) {
+    file = file.getAbsoluteFile();
+    String key = file.getPath();
+    long size = file.length();
+    long modified = file.lastModified();
+    synchronized (MerkleSummary.class) {
+      JSMap entry = cache().optJSMap(key);
+      if (entry != null && entry.opt(KEY_SIZE, -1L) == size && entry.opt(KEY_MODIFIED, -1L) == modified)
+        return entry.opt(KEY_DIGEST, "");
+    }
+    String digest = Digests.digestOf(file);
+    // Don't cache a file that was modified very recently, since it might be modified again
+    // without its (coarse-grained) modification time changing
+    if (System.currentTimeMillis() - modified >= RECENTLY_MODIFIED_MS)
+      storeDigest(key, size, modified, digest);
+    return digest;
+  }
+
+  /**
+   * Record the digest of a file with a particular size and modification time
+   */
+  private static synchronized void storeDigest(String absolutePath, long size, long modified, String digest) {
+    cache().put(absolutePath, map().put(KEY_SIZE, size).put(KEY_MODIFIED, modified).put(KEY_DIGEST, digest));
+    sModifiedKeys.add(absolutePath);
+  }
+
+  /**
+   * Write the cache to the filesystem, if it has changed
+   */
+  public static synchronized void flush() {
+    if (sModifiedKeys.isEmpty())
+      return;
+    SharedJsonFile.update(cacheFile(), (m) -> {
+      for (String key : sModifiedKeys)
+        m.put(key, sCache.optJSMap(key));
+    });
+    sModifiedKeys.clear();
+  }
+
+  private static JSMap cache() {
+    if (sCache == null) {
+      sCache = JSMap.fromFileIfExists(cacheFile());
+      // Discard entries for files that no longer exist (e.g. within old generated directories)
+      List<String> staleKeys = arrayList();
+      for (String key : sCache.keySet())
+        if (!new File(key).exists())
+          staleKeys.add(key);
+      for (String key : staleKeys)
+        sCache.remove(key);
+      if (!staleKeys.isEmpty())
+        SharedJsonFile.update(cacheFile(), (m) -> {
+          for (String key : staleKeys)
+            m.remove(key);
+        });
+    }
+    return sCache;
+  }
+
+  private static File cacheFile() {
+    return new File(FileManager.UNIT_TEST_DIRECTORY, "generated/_merkle_cache_.json");
+  }
+
+  private static final String KEY_SIZE = "size";
+  private static final String KEY_MODIFIED = "modified";
+  private static final String KEY_DIGEST = "digest";
+  private static final long RECENTLY_MODIFIED_MS = 2000;
+
+  private static JSMap sCache;
+  private static final Set<String> sModifiedKeys = hashSet();
+}
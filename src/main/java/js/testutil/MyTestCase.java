@@ -27,26 +27,37 @@ package js.testutil;
 import static js.base.Tools.*;
 import static org.junit.Assert.*;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.Arrays;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
 
 import org.junit.*;
 import org.junit.rules.TestName;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
 import org.junit.runner.RunWith;
 
 import js.base.*;
 import js.data.AbstractData;
 import js.data.DataUtil;
 import js.file.DirWalk;
-import js.file.FileException;
 import js.file.Files;
 import js.json.JSMap;
 import js.json.JSObject;
@@ -61,6 +72,8 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
 
   @Before
   public void setup() {
+    startTiming();
+    captureSystemErr();
     prepareExecutionContext();
     // We leave verbosity false unless there is a single unit test being invoked
     if (MyTestRunner.runCount() == 1)
@@ -73,8 +86,41 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
   public void tearDown() throws Exception {
     mExecutionContext.shutdown();
     log("------------ tearDown");
+    // If the test didn't restore System.out (e.g. because it failed), stop capturing this
+    // thread's output, since the thread may go on to run other tests
+    if (isSystemOutRedirected()) {
+      releaseSystemOut();
+      clearSystemOutRedirection();
+    }
+    try {
+      awaitBackgroundTasks();
+    } finally {
+      releaseSystemErr();
+    }
+    stopTiming();
+  }
+
+  /**
+   * Have the test wait, when it is torn down, for a task running in the
+   * background
+   */
+  void awaitOnTearDown(Future<?> task) {
+    mBackgroundTasks.add(task);
+  }
+
+  private void awaitBackgroundTasks() {
+    try {
+      for (Future<?> task : mBackgroundTasks)
+        task.get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw die("Background task failed:", e);
+    } finally {
+      mBackgroundTasks.clear();
+    }
   }
 
+  private final List<Future<?>> mBackgroundTasks = arrayList();
+
   @Rule
   public TestName mTestName = new TestName();
 
@@ -91,10 +137,79 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
   // Logging
   // ------------------------------------------------------------------
 
+  /**
+   * Write a message to the log (this is the LoggerInterface method, which
+   * receives the output of log(...)). Unless verbose, the message is held in a
+   * per-test buffer rather than written to System.out, and is displayed only
+   * if the test fails
+   */
   public void println(String message) {
-    System.out.println(message);
+    if (verbose())
+      System.out.println(message);
+    else
+      mTestLog.add(message);
+  }
+
+  @Rule
+  public final TestWatcher mTestLogWatcher = new TestWatcher() {
+    @Override
+    protected void failed(Throwable e, Description description) {
+      if (!mTestLog.isEmpty())
+        // Print the log with a single call, so it isn't interleaved with other tests' output
+        System.out.print(mTestLog.format(description.getDisplayName()));
+    }
+
+    @Override
+    protected void succeeded(Description description) {
+      for (Runnable copier : mPendingReferenceCopies)
+        copier.run();
+    }
+
+    @Override
+    protected void finished(Description description) {
+      mTestLog.clear();
+      mPendingReferenceCopies.clear();
+    }
+  };
+
+  private final TestLog mTestLog = new TestLog(TEST_LOG_CAPACITY);
+
+  private static final int TEST_LOG_CAPACITY = 1000;
+
+  // ------------------------------------------------------------------
+  // Timing
+  // ------------------------------------------------------------------
+
+  private void startTiming() {
+    mStartWallNanos = System.nanoTime();
+    mStartCpuNanos = threadCpuNanos();
+  }
+
+  private void stopTiming() {
+    long wallMs = (System.nanoTime() - mStartWallNanos) / 1000000;
+    long cpuMs = (threadCpuNanos() - mStartCpuNanos) / 1000000;
+    TimingReport.sharedInstance().record(getClass().getSimpleName(), name(), wallMs, cpuMs,
+        mHashingNanos / 1000000);
+  }
+
+  /**
+   * Add to the time spent calculating hash codes of generated output
+   */
+  final void addHashingTime(long startNanos) {
+    mHashingNanos += System.nanoTime() - startNanos;
+  }
+
+  private static long threadCpuNanos() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!bean.isCurrentThreadCpuTimeSupported())
+      return 0;
+    return bean.getCurrentThreadCpuTime();
   }
 
+  private long mStartWallNanos;
+  private long mStartCpuNanos;
+  private long mHashingNanos;
+
   // ------------------------------------------------------------------
   // Random numbers
   // ------------------------------------------------------------------
@@ -109,14 +224,52 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
   }
 
   /**
-   * Create a new random number generator, with a particular seed
+   * Create a new random number generator, with a particular seed. This also
+   * determines the streams returned by randomStream()
    */
   public final Random resetSeed(int seed) {
     mRandom = new Random(seed);
+    mSeed = seed;
     return random();
   }
 
+  /**
+   * Get a reproducible stream of random numbers, independent of those of other
+   * tests and of other stream indices. Each task of a test that generates data
+   * concurrently should use its own index (rather than, e.g., one per thread,
+   * since the assignment of tasks to threads varies), so the data doesn't
+   * depend upon how the tasks are scheduled.
+   * 
+   * The stream is derived from the seed passed to resetSeed() (or the default
+   * seed), the test's name, and the index. Unlike random(), it returns a new
+   * generator each time it is called
+   */
+  public final SplittableRandom randomStream(int index) {
+    if (mRandom == null)
+      random();
+    long testSeed = mixBits(mSeed * 0x9e3779b97f4a7c15L + name().hashCode());
+    return new SplittableRandom(mixBits(testSeed + index * 0xbf58476d1ce4e5b9L));
+  }
+
+  /**
+   * Get a reproducible stream of random numbers for the test; equivalent to
+   * randomStream(0)
+   */
+  public final SplittableRandom randomStream() {
+    return randomStream(0);
+  }
+
+  /**
+   * Scramble the bits of a value (the finalizer of the SplitMix64 generator)
+   */
+  private static long mixBits(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
   private Random mRandom;
+  private long mSeed;
 
   // ------------------------------------------------------------------
   // Regression test hash code manipulation (e.g. replace old with new)
@@ -195,21 +348,46 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
     return new File(testDataDir(), name);
   }
 
+  /**
+   * Get the contents of a test data file. If the test data directory has been
+   * packed into an archive, this is a slice of the (memory-mapped) archive, so
+   * no copy is made
+   */
+  public final ByteBuffer testFileContents(String name) {
+    File archiveFile = PackedArchive.archiveFileFor(new File(sUnitTestDir, cachedTestDataName()));
+    if (archiveFile.exists() && !new File(sUnitTestDir, cachedTestDataName()).exists()) {
+      PackedArchive archive = sCachedArchiveMap.computeIfAbsent(archiveFile.getPath(),
+          (k) -> PackedArchive.open(archiveFile));
+      ByteBuffer contents = archive.lookup(name);
+      if (contents == null)
+        throw die("No such test file:", name, "in", archiveFile);
+      return contents;
+    }
+    try (FileChannel channel = FileChannel.open(testFile(name).toPath(), StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+  }
+
   /**
    * Get data directory name from cache, adding if necessary
    */
   private static File dataDir(String baseName) {
-    File result = sCachedDataDirectoryMap.get(baseName);
-    if (result == null) {
-      result = Files.assertDirectoryExists(new File(sUnitTestDir, baseName), "data directory");
-      sCachedDataDirectoryMap.put(baseName, result);
-    }
-    return result;
+    return sCachedDataDirectoryMap.computeIfAbsent(baseName, (k) -> {
+      File dir = new File(sUnitTestDir, baseName);
+      // If the data directory has been packed into an archive, use an unpacked copy of it
+      File archiveFile = PackedArchive.archiveFileFor(dir);
+      if (!dir.exists() && archiveFile.exists())
+        dir = PackedArchive.unpackedCopy(archiveFile);
+      return Files.assertDirectoryExists(dir, "data directory");
+    });
   }
 
   private static File sUnitTestDir = new File("unit_test");
 
   private static Map<String, File> sCachedDataDirectoryMap = concurrentHashMap();
+  private static Map<String, PackedArchive> sCachedArchiveMap = concurrentHashMap();
 
   private String mCachedTestDataName;
   private File mCachedTestDataDir;
@@ -258,7 +436,7 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
   }
 
   public final void generateMessage(String filename, Object messageObject) {
-    sysFiles().writeString(generatedFile(filename), messageObject.toString());
+    fileManager().writeGeneratedFile(filename, messageObject.toString());
   }
 
   private static final String GENERATED_MESSAGE_NAME = "message.txt";
@@ -316,16 +494,36 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
     return string;
   }
 
+  /**
+   * Verify that the hash code of an object has the expected value.
+   * 
+   * Hash codes for new tests are calculated using CanonicalDigest. Older
+   * tests, whose registered hash codes were derived from Object.hashCode(),
+   * continue to use that; these can be converted by running the tests with the
+   * system property testutil.migrateDigests=true
+   */
   public final void assertHash(Object object) {
-    calculateHash(object);
+    assertHash(() -> calculateHash(object), () -> calculateDigestHash(object), () -> object);
+  }
 
-    HashCodeRegistry registry = HashCodeRegistry.registryFor(this);
-    if (registry.verifyHash(name(), mHashReceived, false)) {
+  /**
+   * Verify a hash code, given functions to calculate its legacy and digest
+   * forms, and to supply the object (for describing it if the hash code is
+   * unexpected)
+   */
+  private void assertHash(IntSupplier legacyHash, IntSupplier digestHash, Supplier<Object> objectSupplier) {
+    if (verifyHash(legacyHash, digestHash, false)) {
       return;
     }
 
-    if (mObjectDescr == null)
-      mObjectDescr = prettyPrint(object);
+    if (mObjectDescr == null) {
+      Object object = objectSupplier.get();
+      // Avoid constructing the full description of a (possibly very large) object unless verbose
+      if (verbose())
+        mObjectDescr = prettyPrint(object);
+      else
+        mObjectDescr = CanonicalDigest.preview(object, MAX_DESCRIPTION_LENGTH);
+    }
 
     //    errMsg().pr(//
     //        "Unexpected hash value:", mHashReceived, "for object:", CR, //
@@ -338,13 +536,40 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
     //    "\n" + errMsg().toString());
   }
 
+  /**
+   * Calculate the test's hash code, in the form of the one in the registry (a
+   * legacy code derived from Object.hashCode(), or one calculated from the
+   * digest), and verify that it has the expected value. If invalidateOldHash is
+   * true, the registered hash code is replaced by the digest form
+   */
+  final boolean verifyHash(IntSupplier legacyHash, IntSupplier digestHash, boolean invalidateOldHash) {
+    long startTime = System.nanoTime();
+    HashCodeRegistry registry = HashCodeRegistry.registryFor(this);
+    int expectedHash = registry.expectedHash(name());
+    if (!invalidateOldHash && expectedHash >= 0 && !CanonicalDigest.isDigestHash(expectedHash)) {
+      mHashReceived = legacyHash.getAsInt();
+      if (mHashReceived == expectedHash && TestConfig.migrateDigests()) {
+        // The test passes, so replace its hash code with one calculated from the digest
+        mHashReceived = digestHash.getAsInt();
+        registry.verifyHash(name(), mHashReceived, true);
+        addHashingTime(startTime);
+        return true;
+      }
+    } else
+      mHashReceived = digestHash.getAsInt();
+    addHashingTime(startTime);
+    return registry.verifyHash(name(), mHashReceived, invalidateOldHash);
+  }
+
   public final void assertDirectoryHash(File directory) {
-    deleteScheduledTestFiles();
-    JSMap dirSummary = MyTestUtils.dirSummary(directory, mFilenamesToIgnore);
+    // Rather than deleting the omitted files now, exclude them while summarizing the directory;
+    // they only need deleting if the directory is to be copied or compared
+    DirSummaryWalker walker = new DirSummaryWalker(directory, mFilenamesToIgnore, omittedPaths(directory));
     mFilenamesToIgnore = null;
     try {
-      assertHash(dirSummary);
+      assertHash(() -> legacyHash(walker.summaryHashCode()), walker::registryHash, walker::summary);
     } catch (Throwable t) {
+      deleteScheduledTestFiles();
       showDiffs(directory, verbose());
       throw t;
     }
@@ -357,6 +582,7 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
     // disagrees with what we expected.
 
     writeReferenceCopy(directory, mHashReceived);
+    mFilesToDelete.clear();
   }
 
   /**
@@ -379,7 +605,9 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
    * (without deleting any existing one), so we can view it in Finder.
    * 
    * It won't delete any existing directories, but will delete any existing
-   * files (that were not already copied over).
+   * files (that were not already copied over). Files that haven't changed are
+   * not copied again; the copying is done in the background, and the test
+   * waits for it to finish when it is torn down.
    */
   public void saveHuman() {
     File sourceDir = generatedDir();
@@ -395,46 +623,13 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
 
       humanCopy = Files.getDesktopFile("ub_inspections/" + className + "_" + sourceDir.getName());
     }
-    sysFiles().mkdirs(humanCopy);
-
-    Set<String> filesCopied = hashSet();
-    Set<String> subdirSet = hashSet();
-    DirWalk w = new DirWalk(sourceDir).withRecurse(true);
-    for (File f : w.filesRelative()) {
-      String dirs = nullToEmpty(f.getParent());
-      if (subdirSet.add(dirs)) {
-        File newDir = new File(humanCopy, dirs);
-        sysFiles().mkdirs(newDir);
-      }
-      String relPath = f.getPath();
-      filesCopied.add(relPath);
-      try {
-        sysFiles().copyFile(w.abs(f), new File(humanCopy, relPath));
-      } catch (FileException e) {
-        // A background task (e.g. dashboard cache maintenance) may be deleting files while we're copying them
-        if (!(e.getCause() instanceof FileNotFoundException)) {
-          throw e;
-        }
-        alert("File(s) disappeared within saveHuman()");
-      }
-    }
-
-    // Delete any old files that weren't just updated
-    w = new DirWalk(humanCopy).withRecurse(true);
-    for (File f : w.filesRelative()) {
-      String relPath = f.getPath();
-      if (!filesCopied.contains(relPath)) {
-        if (mPreservedFilenamesSet.contains(f.getName()))
-          continue;
-        alert("Deleted stale file(s) within saveHuman()");
-        sysFiles().deleteFile(w.abs(f));
-      }
-    }
+    awaitOnTearDown(
+        DirSync.syncInBackground(sourceDir, humanCopy, true, mPreservedFilenamesSet, "saveHuman()"));
   }
 
   /**
-   * Schedule deletion of some generated files or directories, to be done before
-   * hashes are calculated
+   * Exclude some generated files or directories from the directory hash; they
+   * are deleted only if the directory is to be copied or compared
    */
   public final void omitTestFiles(String... fileOrDirectoryNames) {
     for (String filename : fileOrDirectoryNames)
@@ -458,6 +653,20 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
       omitTestFile(file);
   }
 
+  /**
+   * Get the paths, relative to a directory, of the omitted files (which are
+   * relative to the generated directory) that lie within it
+   */
+  private List<String> omittedPaths(File directory) {
+    List<String> paths = arrayList();
+    for (String filename : mFilesToDelete) {
+      File relPath = Files.fileRelativeToDirectory(generatedFile(filename), directory.getAbsoluteFile());
+      if (!relPath.isAbsolute())
+        paths.add(relPath.getPath());
+    }
+    return paths;
+  }
+
   private void deleteScheduledTestFiles() {
     for (String filename : mFilesToDelete) {
       File file = generatedFile(filename);
@@ -477,16 +686,58 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
 
   private void writeReferenceCopy(File directory, int expectedHash) {
     File refDir = referenceDirectory(directory);
-    File hashCodeFile = new File(refDir, HASHCODE_FILENAME);
+    Integer referenceHash = referenceHash(refDir);
+
+    if (referenceHash == null || referenceHash != expectedHash || expectedHash < 0) {
+      // If the reference copy has been packed into an archive, keep it in that form
+      boolean packed = !refDir.exists() && PackedArchive.archiveFileFor(refDir).exists();
+      deleteScheduledTestFiles();
+      // If FileManager created the generated directory afresh for this test, its files will be
+      // replaced (rather than modified) by later runs, so they can be shared with the reference
+      // copy; but the test may not have finished writing them, so wait until it has passed
+      if (!packed && fileManager().isFreshGeneratedDir(directory))
+        mPendingReferenceCopies.add(() -> {
+          if (directory.exists())
+            replaceReferenceCopy(directory, expectedHash, true, false);
+        });
+      else
+        replaceReferenceCopy(directory, expectedHash, false, packed);
+    }
+  }
 
-    if (!hashCodeFile.exists() || JSMap.from(hashCodeFile).getInt("hashcode") != expectedHash
-        || expectedHash < 0) {
-      sysFiles().deleteDirectory(refDir);
-      sysFiles().copyDirectory(directory, refDir);
-      sysFiles().writeString(hashCodeFile, map().put("hashcode", expectedHash).toString());
+  private void replaceReferenceCopy(File directory, int expectedHash, boolean allowHardLinks,
+      boolean packed) {
+    File refDir = referenceDirectory(directory);
+    Trash.discard(refDir);
+    Snapshots.snapshot(directory, refDir, allowHardLinks);
+    sysFiles().writeString(new File(refDir, HASHCODE_FILENAME),
+        map().put("hashcode", expectedHash).toString());
+    if (packed) {
+      PackedArchive.pack(refDir, PackedArchive.archiveFileFor(refDir));
+      Trash.discard(refDir);
     }
   }
 
+  // Reference copies to be made once the test has passed
+  private final List<Runnable> mPendingReferenceCopies = arrayList();
+
+  /**
+   * Get the hash code recorded in a reference directory (or the archive it
+   * has been packed into), or null if there is none
+   */
+  private static Integer referenceHash(File refDir) {
+    File hashCodeFile = new File(refDir, HASHCODE_FILENAME);
+    if (hashCodeFile.exists())
+      return JSMap.from(hashCodeFile).getInt("hashcode");
+    File archiveFile = PackedArchive.archiveFileFor(refDir);
+    if (refDir.exists() || !archiveFile.exists())
+      return null;
+    ByteBuffer contents = PackedArchive.open(archiveFile).lookup(HASHCODE_FILENAME);
+    if (contents == null)
+      return null;
+    return new JSMap(StandardCharsets.UTF_8.decode(contents).toString()).getInt("hashcode");
+  }
+
   private static File referenceDirectory(File sourceDirectory) {
     checkArgument(sourceDirectory.isAbsolute());
     return new File(sourceDirectory.getParentFile(), sourceDirectory.getName() + "_REF");
@@ -495,9 +746,24 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
   private static final Set<String> sTextFileExtensions = hashSetWith(Files.EXT_TEXT, Files.EXT_JSON);
 
   public static void showDiffs(File directory, boolean extended) {
+    // If the reference copy has been packed into an archive, compare with a temporary copy of it
+    File referenceDirectory = referenceDirectory(directory);
+    File archiveFile = PackedArchive.archiveFileFor(referenceDirectory);
+    if (referenceDirectory.exists() || !archiveFile.exists()) {
+      showDiffs(directory, referenceDirectory, extended);
+      return;
+    }
+    File unpacked = PackedArchive.unpackTemporaryCopy(archiveFile);
+    try {
+      showDiffs(directory, unpacked, extended);
+    } finally {
+      Trash.discard(unpacked);
+    }
+  }
+
+  private static void showDiffs(File directory, File referenceDirectory, boolean extended) {
     Set<File> relFiles = hashSet();
 
-    File referenceDirectory = referenceDirectory(directory);
     if (referenceDirectory.exists()) {
       DirWalk dirWalk = new DirWalk(referenceDirectory).withRecurse(true);
       relFiles.addAll(dirWalk.filesRelative());
@@ -510,68 +776,74 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
     sortedFiles.addAll(relFiles);
     sortedFiles.sort(null);
 
+    List<File> changedFiles = arrayList();
     for (File fileReceived : sortedFiles) {
       File fileRecAbs = dirWalk.abs(fileReceived);
       File fileRefAbs = new File(referenceDirectory, fileReceived.getPath());
-
-      if (fileRefAbs.exists() && fileRecAbs.exists()
-          && Arrays.equals(Files.toByteArray(fileRecAbs, null), Files.toByteArray(fileRefAbs, null)))
+      if (fileRefAbs.exists() && fileRecAbs.exists() && FileComparison.sameContents(fileRecAbs, fileRefAbs))
         continue;
+      changedFiles.add(fileReceived);
+    }
 
+    // Describe the changed files concurrently, and print the descriptions in order
+    for (String report : LineDiff.reportAll(changedFiles,
+        (fileReceived) -> describeChange(fileReceived, dirWalk.abs(fileReceived),
+            new File(referenceDirectory, fileReceived.getPath()), extended))) {
       pr(CR,
           "------------------------------------------------------------------------------------------------");
-      pr(fileReceived);
-
-      if (!fileRefAbs.exists()) {
-        pr("...unexpected file");
-        continue;
-      }
-      if (!fileRecAbs.exists()) {
-        pr("...file has disappeared");
-        continue;
-      }
+      pr(report);
+    }
+  }
 
-      // If it looks like a text file, call the 'diff' utility to display differences
-      //
-      String ext = Files.getExtension(fileReceived);
-      if (!sTextFileExtensions.contains(ext)) {
-        pr("...files differ");
-        if (extended) {
-          SystemCall sc = new SystemCall();
-          sc.withVerbose(true);
-          sc.arg("diff", fileRefAbs, fileRecAbs);
-          sc.assertSuccess();
-        }
-        continue;
-      }
+  private static String describeChange(File fileReceived, File fileRecAbs, File fileRefAbs,
+      boolean extended) {
+    String prefix = fileReceived + "\n";
+    if (!fileRefAbs.exists())
+      return prefix + "...unexpected file";
+    if (!fileRecAbs.exists())
+      return prefix + "...file has disappeared";
 
-      SystemCall sc = new SystemCall();
-      sc.directory(directory);
-      sc.arg("diff", fileRecAbs, fileRefAbs);
-      sc.arg("-c");
-      pr();
-      String result = sc.systemOut();
-      pr(result);
-    }
+    // If it looks like a text file, display the differences between its lines
+    //
+    String ext = Files.getExtension(fileReceived);
+    if (!sTextFileExtensions.contains(ext))
+      return prefix + FileComparison.describeDifference(fileRefAbs, fileRecAbs);
+    return prefix + CR
+        + LineDiff.diff(fileRefAbs, fileRecAbs, extended ? EXTENDED_DIFF_LINES : DEFAULT_DIFF_LINES);
   }
 
+  private static final int DEFAULT_DIFF_LINES = 200;
+  private static final int EXTENDED_DIFF_LINES = 5000;
+
   private String mObjectDescr;
   private int mHashReceived;
 
-  private void calculateHash(Object object) {
+  private static final int MAX_DESCRIPTION_LENGTH = 2000;
+
+  private int calculateDigestHash(Object object) {
+    if (object instanceof File)
+      mObjectDescr = ((File) object).getName();
+    return CanonicalDigest.registryHash(object);
+  }
+
+  private int calculateHash(Object object) {
     if (object instanceof File) {
       File file = (File) object;
       mObjectDescr = file.getName();
       byte[] fileContents = Files.toByteArray(file, null);
       object = DataUtil.hashOf(fileContents);
     }
+    return legacyHash(object.hashCode());
+  }
 
-    int oldHashReceived = object.hashCode();
+  /**
+   * Convert an Object.hashCode() value to one using exactly four digits
+   */
+  static int legacyHash(int hashCode) {
     // Curiously, a hash code of zero is sometimes being generated
-    if (oldHashReceived == 0)
-      oldHashReceived = 999;
-    int hashReceived = (oldHashReceived & 0xffff) % 9000 + 1000;
-    mHashReceived = hashReceived;
+    if (hashCode == 0)
+      hashCode = 999;
+    return (hashCode & 0xffff) % 9000 + 1000;
   }
 
   // ------------------------------------------------------------------
@@ -579,35 +851,70 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
   // ------------------------------------------------------------------
 
   private boolean isSystemOutRedirected() {
-    return mOriginalSystemOut != null;
+    return mCaptureStream != null;
   }
 
   private void clearSystemOutRedirection() {
-    mOriginalSystemOut = null;
-    mRedirectedGenFile = null;
-    mRedirectedOutputStream = null;
+    mCaptureStream = null;
+    mOutputCapture = null;
   }
 
   /**
-   * Redirect System.out to a generated file
+   * Redirect System.out to a generated file. If tests may be running
+   * concurrently, only output from the current thread (and threads it creates)
+   * is redirected, so each test can redirect its own output
    */
   public final void redirectSystemOut() {
     checkState(!isSystemOutRedirected(), "System.out already redirected");
-    mOriginalSystemOut = System.out;
 
     // The client code may delete the entire generated directory 
-    // (i.e., 'zap' output dir); so temporarily redirect to a file that is elsewhere
+    // (i.e., 'zap' output dir); so capture the output elsewhere (in memory, unless it gets large)
+    mOutputCapture = new OutputCapture(name());
+    mCaptureStream = new BufferedOutputStream(mOutputCapture, CAPTURE_BUFFER_SIZE);
+    if (TestConfig.threads() > 1)
+      ThreadOutput.OUT.capture(mCaptureStream);
+    else {
+      // Tests are run one at a time, so just replace System.out
+      mOriginalSystemOut = System.out;
+      System.setOut(new PrintStream(mCaptureStream));
+    }
+  }
 
-    try {
-      mRedirectedGenFile = File.createTempFile(name() + "-", null);
-    } catch (Throwable e) {
-      throw Files.asFileException(e);
+  /**
+   * If tests may be running concurrently, collect the current test's
+   * System.err output (including that of threads it creates), so it can be
+   * written as a single block when the test finishes, rather than being
+   * interleaved with that of other tests
+   */
+  private void captureSystemErr() {
+    if (TestConfig.threads() <= 1)
+      return;
+    mErrCapture = new ByteArrayOutputStream();
+    ThreadOutput.ERR.capture(mErrCapture);
+  }
+
+  private void releaseSystemErr() {
+    if (mErrCapture == null)
+      return;
+    ThreadOutput.ERR.release();
+    byte[] output = mErrCapture.toByteArray();
+    mErrCapture = null;
+    if (output.length > 0) {
+      System.err.write(output, 0, output.length);
+      System.err.flush();
     }
-    mRedirectedGenFile.deleteOnExit();
-    mRedirectedOutputStream = Files.S.outputStream(mRedirectedGenFile);
-    System.setOut(new PrintStream(mRedirectedOutputStream));
   }
 
+  private void releaseSystemOut() {
+    if (mOriginalSystemOut != null) {
+      System.setOut(mOriginalSystemOut);
+      mOriginalSystemOut = null;
+    } else
+      ThreadOutput.OUT.release();
+  }
+
+  private static final int CAPTURE_BUFFER_SIZE = 8192;
+
   /**
    * Redirect System.out to a generated file, unless verbosity is true
    */
@@ -618,9 +925,10 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
 
   public final void assertSystemOut() {
     try {
-      String message = restoreSystemOut();
+      // Avoid reading the (possibly very large) output back into memory unless it's to be displayed
+      OutputCapture capture = finishSystemOutRedirection();
       if (verbose())
-        log(message);
+        log(capture.content());
       assertGenerated();
     } finally {
       clearSystemOutRedirection();
@@ -632,29 +940,29 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
    * written to the generated file 'message.txt'
    */
   public String restoreSystemOut() {
+    return finishSystemOutRedirection().content();
+  }
+
+  /**
+   * Restore System.out, and write the redirected output to the generated file
+   * 'message.txt'
+   */
+  private OutputCapture finishSystemOutRedirection() {
     checkState(isSystemOutRedirected(), "System.out wasn't redirected");
 
-    String redirectedContent;
+    releaseSystemOut();
     try {
-      System.out.flush();
-      System.setOut(mOriginalSystemOut);
-
-      // Clear the 'systemOutRedirected' status by discarding the original System.out:
-      mOriginalSystemOut = null;
-
-      mRedirectedOutputStream.close();
-
-      redirectedContent = Files.readString(mRedirectedGenFile);
-      // Move the redirected file to the generated directory, now that we've got its content;
-      // if client code deletes it, that's ok
-      File destination = generatedFile(GENERATED_MESSAGE_NAME);
-      Files.S.moveFile(mRedirectedGenFile, destination);
-
-      mRedirectedGenFile = destination;
+      mCaptureStream.flush();
     } catch (IOException e) {
       throw Files.asFileException(e);
     }
-    return redirectedContent;
+    // Clear the 'systemOutRedirected' status by discarding the capture stream:
+    mCaptureStream = null;
+
+    // If client code deletes the generated file, that's ok
+    File messageFile = generatedFile(GENERATED_MESSAGE_NAME);
+    fileManager().recordDigest(messageFile, mOutputCapture.saveTo(messageFile));
+    return mOutputCapture;
   }
 
   public final Files files() {
@@ -670,9 +978,10 @@ public abstract class MyTestCase extends BaseObject implements LoggerInterface {
   }
 
   private Files mFiles;
+  private BufferedOutputStream mCaptureStream;
   private PrintStream mOriginalSystemOut;
-  private File mRedirectedGenFile;
-  private FileOutputStream mRedirectedOutputStream;
+  private ByteArrayOutputStream mErrCapture;
+  private OutputCapture mOutputCapture;
 
   protected TimeManager timeManager() {
     return mExecutionContext.getTimeManager();
@@ -24,17 +24,22 @@
  **/
 package js.testutil;
 
+import org.junit.internal.AssumptionViolatedException;
 import org.junit.runner.manipulation.Filter;
 import org.junit.runner.manipulation.NoTestsRemainException;
+import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.Statement;
 
 import static js.base.Tools.*;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Our own TestRunner class to support some custom test behavior
@@ -45,6 +50,128 @@ public class MyTestRunner extends BlockJUnit4ClassRunner {
     super(theClass);
   }
 
+  @Override
+  public void run(RunNotifier notifier) {
+    // Call the superclass filter method for these, since they shouldn't affect runCount()
+    try {
+      if (TestConfig.shardCount() > 1)
+        super.filter(ShardFilter.sharedInstance());
+      // Don't apply the budget to a test that has been explicitly selected
+      if (TestConfig.budgetSeconds() > 0 && runCount() != 1) {
+        // Only the tests that remain after sharding count against the budget
+        BudgetFilter budgetFilter = BudgetFilter.sharedInstance();
+        budgetFilter.allocate(getDescription());
+        super.filter(budgetFilter);
+      }
+    } catch (NoTestsRemainException e) {
+      // None of our tests are to be run
+      return;
+    }
+
+    ForkJoinPool suitePool = MyTestSuite.activePool();
+    if (suitePool != null) {
+      // We're part of a MyTestSuite, which has already sorted our methods
+      setScheduler(new WorkStealingScheduler(suitePool));
+    } else {
+      // If only a single test is being run, it will be verbose; leave the default (serial)
+      // scheduler in place for that case
+      int threads = TestConfig.threads();
+      boolean parallel = threads > 1 && runCount() != 1;
+      if (TestConfig.failFastOrder())
+        sort(TestHistory.sharedInstance().failFastSorter());
+      else if (parallel)
+        sort(TestHistory.sharedInstance().longestFirstSorter());
+      if (parallel)
+        setScheduler(new ParallelScheduler(className(), threads));
+    }
+    try {
+      super.run(notifier);
+    } finally {
+      HashCodeRegistry.flushAll();
+      TestHistory.sharedInstance().flush();
+      OutcomeCache.sharedInstance().flush();
+      TimingReport.sharedInstance().flush();
+      MerkleSummary.flush();
+    }
+  }
+
+  @Override
+  protected void runChild(FrameworkMethod method, RunNotifier notifier) {
+    if (isIgnored(method)) {
+      super.runChild(method, notifier);
+      return;
+    }
+    // Don't skip a test that has been explicitly selected
+    if (TestConfig.skipUnchanged() && runCount() != 1 && OutcomeCache.sharedInstance()
+        .passedWith(className(), method.getName(), inputsKey(method))) {
+      notifier.fireTestIgnored(describeChild(method));
+      return;
+    }
+    long startTime = System.nanoTime();
+    super.runChild(method, notifier);
+    long elapsedMs = (System.nanoTime() - startTime) / 1000000;
+    TestHistory.sharedInstance().recordDuration(className(), method.getName(), elapsedMs);
+  }
+
+  @Override
+  protected Statement methodBlock(FrameworkMethod method) {
+    Statement statement = super.methodBlock(method);
+    return new Statement() {
+      @Override
+      public void evaluate() throws Throwable {
+        try {
+          statement.evaluate();
+        } catch (AssumptionViolatedException e) {
+          throw e;
+        } catch (Throwable t) {
+          recordOutcome(method, false);
+          throw t;
+        }
+        recordOutcome(method, true);
+      }
+    };
+  }
+
+  private void recordOutcome(FrameworkMethod method, boolean passed) {
+    TestHistory.sharedInstance().recordOutcome(className(), method.getName(), passed);
+    if (TestConfig.skipUnchanged()) {
+      if (passed)
+        OutcomeCache.sharedInstance().recordPass(className(), method.getName(), inputsKey(method));
+      else
+        OutcomeCache.sharedInstance().recordFailure(className(), method.getName());
+    }
+  }
+
+  private String inputsKey(FrameworkMethod method) {
+    return OutcomeCache.sharedInstance().inputsKey(getTestClass().getJavaClass(), testDataDir(),
+        method.getName());
+  }
+
+  /**
+   * Determine the test class's data directory; we construct an instance of the
+   * class to do this, since its name can be overridden
+   */
+  private synchronized File testDataDir() {
+    if (!mTestDataDirDetermined) {
+      try {
+        Object test = createTest();
+        if (test instanceof MyTestCase)
+          mTestDataDir = new File(FileManager.UNIT_TEST_DIRECTORY, ((MyTestCase) test).testDataName());
+      } catch (Exception e) {
+        throw die("Failed to construct test to determine its data directory:", getTestClass(), e);
+      }
+      mTestDataDirDetermined = true;
+    }
+    return mTestDataDir;
+  }
+
+  private boolean mTestDataDirDetermined;
+  private File mTestDataDir;
+
+  private String className() {
+    return getTestClass().getJavaClass().getSimpleName();
+  }
+
   @Override
   public void filter(Filter filter) throws NoTestsRemainException {
     loadTools();
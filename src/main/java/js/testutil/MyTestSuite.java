@@ -0,0 +1,88 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+
+/**
+ * A suite of test classes whose classes and test methods are run concurrently
+ * within a single work-stealing pool. Classes and methods that took the longest
+ * in earlier runs are started first, so a single slow class doesn't hold up the
+ * whole run.
+ * 
+ * Usage:
+ * 
+ * <pre>
+ * &#64;RunWith(MyTestSuite.class)
+ * &#64;SuiteClasses({ BackupManagerTest.class, BitWriterTest.class, ... })
+ * public class AllTests {
+ * }
+ * </pre>
+ * 
+ * The number of threads is determined by the testutil.threads system
+ * property; if this is less than 2, the number of available processors is
+ * used
+ */
+public class MyTestSuite extends Suite {
+
+  public MyTestSuite(Class<?> klass, RunnerBuilder builder) throws InitializationError {
+    super(klass, builder);
+  }
+
+  @Override
+  public void run(RunNotifier notifier) {
+    int threads = TestConfig.threads();
+    if (threads < 2)
+      threads = Runtime.getRuntime().availableProcessors();
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    // This sorts the test methods within each class as well as the classes themselves
+    TestHistory history = TestHistory.sharedInstance();
+    sort(TestConfig.failFastOrder() ? history.failFastSorter() : history.longestFirstSorter());
+    setScheduler(new WorkStealingScheduler(pool));
+    sActivePool = pool;
+    try {
+      super.run(notifier);
+    } finally {
+      sActivePool = null;
+      pool.shutdown();
+      TestHistory.sharedInstance().flush();
+    }
+  }
+
+  /**
+   * Get the pool that a suite is running its tests within, or null if no
+   * suite is running
+   */
+  static ForkJoinPool activePool() {
+    return sActivePool;
+  }
+
+  private static volatile ForkJoinPool sActivePool;
+}
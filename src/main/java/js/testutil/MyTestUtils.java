@@ -29,6 +29,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.BooleanSupplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -189,16 +190,166 @@ public final class MyTestUtils {
   }
 
   public static JSMap dirSummary(File dir, List<String> optFilenamesToIgnore, boolean calculateFileHashes) {
+    Set<String> ignored = ignoredSet(optFilenamesToIgnore);
+    if (!calculateFileHashes)
+      return auxDirSummary(dir, ignored, calculateFileHashes);
+
+    // Calculate the hashes of the files concurrently, then assemble the summary in the 
+    // same order as auxDirSummary() would
+    DirNode root = buildDirNode(dir, ignored);
+    List<DirNode> fileNodes = arrayList();
+    root.collectFiles(fileNodes);
+    new HashFilesTask(fileNodes, 0, fileNodes.size()).invoke();
+    return root.summary();
+  }
+
+  /**
+   * Write the summary of a directory tree, as compact json, without
+   * constructing it in memory
+   */
+  public static void writeDirSummary(File dir, List<String> optFilenamesToIgnore, Appendable output) {
+    new DirSummaryWalker(dir, optFilenamesToIgnore, null).writeJson(output);
+  }
+
+  /**
+   * Get a digest of the contents of a directory tree (see MerkleSummary); file
+   * digests are cached, so files that haven't changed since an earlier call
+   * are not read again
+   */
+  public static String dirDigest(File dir) {
+    MerkleSummary.Node root = MerkleSummary.build(dir, ignoredSet(null));
+    return (root == null) ? "" : root.digest;
+  }
+
+  /**
+   * Compare two directory trees, and return the relative paths of the
+   * smallest subtrees that differ; a directory that appears in only one of
+   * them is reported as a single path ending with '/'
+   */
+  public static List<String> changedPaths(File dirA, File dirB) {
+    Set<String> ignored = ignoredSet(null);
+    List<String> paths = arrayList();
+    MerkleSummary.compare(MerkleSummary.build(dirA, ignored), MerkleSummary.build(dirB, ignored), "", paths);
+    return paths;
+  }
+
+  static Set<String> ignoredSet(List<String> optFilenamesToIgnore) {
     Set<String> ignored = hashSet();
     ignored.addAll(sFilenamesToIgnore);
     if (optFilenamesToIgnore != null)
       ignored.addAll(optFilenamesToIgnore);
-    return auxDirSummary(dir, ignored, calculateFileHashes);
+    return ignored;
+  }
+
+  /**
+   * Calculate the hashes (as used in the dirSummary) of some files
+   * concurrently, returning them in the same order
+   */
+  static Object[] fileHashes(List<File> files) {
+    List<DirNode> nodes = arrayList();
+    for (File f : files)
+      nodes.add(new DirNode(f));
+    new HashFilesTask(nodes, 0, nodes.size()).invoke();
+    Object[] hashes = new Object[nodes.size()];
+    for (int i = 0; i < hashes.length; i++)
+      hashes[i] = nodes.get(i).hash;
+    return hashes;
+  }
+
+  /**
+   * A file or directory within a tree being summarized
+   */
+  private static final class DirNode {
+
+    DirNode(File file) {
+      this.file = file;
+    }
+
+    void collectFiles(List<DirNode> output) {
+      if (children == null)
+        output.add(this);
+      else
+        for (DirNode child : children)
+          child.collectFiles(output);
+    }
+
+    JSMap summary() {
+      JSMap m = map();
+      for (DirNode child : children) {
+        Object value = child.hash;
+        if (child.children != null) {
+          JSMap subdirSummary = child.summary();
+          if (subdirSummary.isEmpty())
+            continue;
+          value = subdirSummary;
+        }
+        m.putUnsafe(child.file.getName(), value);
+      }
+      return m;
+    }
+
+    final File file;
+    // Null if this is a file
+    List<DirNode> children;
+    Object hash;
+  }
+
+  private static DirNode buildDirNode(File dir, Set<String> ignored) {
+    DirNode node = new DirNode(dir);
+    node.children = arrayList();
+    for (File f : files(dir)) {
+      if (ignored.contains(f.getName()))
+        continue;
+      if (f.isDirectory())
+        node.children.add(buildDirNode(f, ignored));
+      else
+        node.children.add(new DirNode(f));
+    }
+    return node;
+  }
+
+  /**
+   * Calculates the hashes of a range of files, splitting the range into
+   * subtasks that can run concurrently
+   */
+  private static final class HashFilesTask extends RecursiveAction {
+
+    HashFilesTask(List<DirNode> nodes, int start, int end) {
+      mNodes = nodes;
+      mStart = start;
+      mEnd = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (mEnd - mStart <= 1) {
+        for (int i = mStart; i < mEnd; i++) {
+          DirNode node = mNodes.get(i);
+          node.hash = fileHash(node.file);
+        }
+        return;
+      }
+      int mid = (mStart + mEnd) / 2;
+      invokeAll(new HashFilesTask(mNodes, mStart, mid), new HashFilesTask(mNodes, mid, mEnd));
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<DirNode> mNodes;
+    private final int mStart;
+    private final int mEnd;
+  }
+
+  static Object fileHash(File f) {
+    Object value = Files.tryHash(f);
+    if (value == null)
+      value = DataUtil.checksum(f);
+    return value;
   }
 
   private static final Comparator<File> COMPARATOR = (File a, File b) -> a.getPath().compareTo(b.getPath());
 
-  private static List<File> files(File directory) {
+  static List<File> files(File directory) {
     List<File> files = arrayList();
     File[] auxFiles = directory.listFiles();
     if (auxFiles != null) {
@@ -224,9 +375,7 @@ public final class MyTestUtils {
           continue;
         value = subdirSummary;
       } else if (calculateFileHashes) {
-        value = Files.tryHash(f);
-        if (value == null)
-          value = DataUtil.checksum(f);
+        value = fileHash(f);
       }
       m.putUnsafe(s, value);
     }
@@ -270,7 +419,7 @@ public final class MyTestUtils {
       long elapsed = currentTime - startTime;
       if (elapsed > maxWaitMs)
         throw badState("waitFor expired after waiting:", DateTimeTools.humanDuration(elapsed));
-      DateTimeTools.sleepForRealMs(DateTimeTools.MILLISECONDS(50));
+      ThreadSupport.sleepMs(DateTimeTools.MILLISECONDS(50));
     }
   }
 
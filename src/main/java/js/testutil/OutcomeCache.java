@@ -0,0 +1,263 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import js.base.BaseObject;
+import js.base.Tools;
+import js.file.Files;
+import js.json.JSMap;
+
+/**
+ * Records which unit tests have passed, and a key summarizing the inputs they
+ * passed with, so a test can be skipped if it has already passed with the same
+ * inputs.
+ * 
+ * The inputs are the bytecode of the test class (and its superclasses, up to
+ * MyTestCase), the contents of its test data directory, the libraries
+ * (java-core and this one) and the rest of the classpath (including all of the
+ * test classes) it is running against, and its registered hash code
+ */
+final class OutcomeCache extends BaseObject {
+
+  public static OutcomeCache sharedInstance() {
+    return sInstance;
+  }
+
+  private static final OutcomeCache sInstance = new OutcomeCache();
+
+  private OutcomeCache() {
+    mFile = new File(FileManager.UNIT_TEST_DIRECTORY, "_outcome_cache_.json");
+    mMap = JSMap.fromFileIfExists(mFile);
+  }
+
+  @Override
+  public synchronized JSMap toJson() {
+    return mMap;
+  }
+
+  /**
+   * Construct the portion of the inputs key that applies to every test in a
+   * class
+   */
+  public String classInputsKey(Class<?> testClass, File testDataDir) {
+    return mClassKeys.computeIfAbsent(testClass, (c) -> calculateClassInputsKey(c, testDataDir));
+  }
+
+  /**
+   * Construct the inputs key for a particular test
+   */
+  public String inputsKey(Class<?> testClass, File testDataDir, String testName) {
+    MessageDigest digest = Digests.newDigest();
+    field(digest, "class", classInputsKey(testClass, testDataDir));
+    field(digest, "test", testName);
+    field(digest, "hash", "" + HashCodeRegistry.registryFor(testClass).expectedHash(testName));
+    return Digests.hex(digest.digest());
+  }
+
+  /**
+   * Determine if a test has previously passed with a particular inputs key
+   */
+  public synchronized boolean passedWith(String className, String testName, String inputsKey) {
+    JSMap classMap = mMap.optJSMap(className);
+    return classMap != null && inputsKey.equals(classMap.opt(testName, ""));
+  }
+
+  public synchronized void recordPass(String className, String testName, String inputsKey) {
+    JSMap classMap = mMap.optJSMap(className);
+    if (classMap == null) {
+      classMap = map();
+      mMap.put(className, classMap);
+    }
+    classMap.put(testName, inputsKey);
+    mModifiedEntries.add(new String[] { className, testName });
+  }
+
+  public synchronized void recordFailure(String className, String testName) {
+    JSMap classMap = mMap.optJSMap(className);
+    if (classMap == null || !classMap.containsKey(testName))
+      return;
+    classMap.remove(testName);
+    mModifiedEntries.add(new String[] { className, testName });
+  }
+
+  /**
+   * Write the cache to the filesystem, if it has changed. Only the entries
+   * we've modified are written, in case other processes (e.g. other shards)
+   * are updating it as well
+   */
+  public synchronized void flush() {
+    if (mModifiedEntries.isEmpty())
+      return;
+    SharedJsonFile.update(mFile, (m) -> {
+      for (String[] key : mModifiedEntries) {
+        String className = key[0];
+        String testName = key[1];
+        String inputsKey = mMap.optJSMap(className).opt(testName, "");
+        JSMap classMap = m.optJSMap(className);
+        if (classMap == null) {
+          classMap = map();
+          m.put(className, classMap);
+        }
+        if (inputsKey.isEmpty())
+          classMap.remove(testName);
+        else
+          classMap.put(testName, inputsKey);
+      }
+    });
+    mModifiedEntries.clear();
+  }
+
+  private String calculateClassInputsKey(Class<?> testClass, File testDataDir) {
+    MessageDigest digest = Digests.newDigest();
+    try {
+      for (Class<?> c = testClass; c != null && c != MyTestCase.class; c = c.getSuperclass()) {
+        String resourceName = c.getName().replace('.', '/') + ".class";
+        try (InputStream input = c.getClassLoader().getResourceAsStream(resourceName)) {
+          field(digest, "class", resourceName);
+          if (input != null)
+            field(digest, "bytecode", input.readAllBytes());
+        }
+      }
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+    String dataSummary = "none";
+    if (testDataDir != null) {
+      if (testDataDir.isDirectory())
+        dataSummary = "" + MyTestUtils.dirSummary(testDataDir).hashCode();
+      // The data may also (or instead) be supplied as a packed archive
+      File archive = PackedArchive.archiveFileFor(testDataDir);
+      if (archive.isFile())
+        dataSummary += ":" + MerkleSummary.fileDigest(archive);
+    }
+    field(digest, "data", dataSummary);
+    field(digest, "libraries", librariesKey());
+
+    // Include the entire classpath, including the directory (or jar) holding the test classes;
+    // the test may depend upon any of the classes within it (e.g. helper classes), as well as
+    // the code being tested
+    for (Map.Entry<File, String> ent : classpathKeys().entrySet()) {
+      field(digest, "classpath", ent.getKey().getPath());
+      field(digest, "digest", ent.getValue());
+    }
+    return Digests.hex(digest.digest());
+  }
+
+  /**
+   * Add a field to a digest; it is tagged and prefixed by its length, so
+   * different sequences of fields can't produce the same input
+   */
+  private static void field(MessageDigest digest, String tag, String value) {
+    field(digest, tag, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void field(MessageDigest digest, String tag, byte[] value) {
+    byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+    digest.update(ByteBuffer.allocate(8).putInt(tagBytes.length).putInt(value.length).array());
+    digest.update(tagBytes);
+    digest.update(value);
+  }
+
+  private synchronized String librariesKey() {
+    if (mLibrariesKey == null)
+      mLibrariesKey = codeSourceKey(Tools.class) + ":" + codeSourceKey(MyTestCase.class);
+    return mLibrariesKey;
+  }
+
+  /**
+   * Get keys summarizing each entry of the classpath, in order
+   */
+  private synchronized Map<File, String> classpathKeys() {
+    if (mClasspathKeys == null) {
+      Map<File, String> keys = new LinkedHashMap<>();
+      // Surefire may run the tests with a manifest-only jar as the classpath; if so, it
+      // supplies the actual classpath in this property
+      String classpath = System.getProperty("surefire.test.class.path",
+          System.getProperty("java.class.path", ""));
+      for (String path : classpath.split(File.pathSeparator)) {
+        if (path.isEmpty())
+          continue;
+        File entry = new File(path).getAbsoluteFile();
+        String key;
+        if (entry.isDirectory())
+          key = MyTestUtils.dirDigest(entry);
+        else if (entry.isFile())
+          key = MerkleSummary.fileDigest(entry);
+        else
+          key = "none";
+        keys.put(entry, key);
+      }
+      mClasspathKeys = keys;
+    }
+    return mClasspathKeys;
+  }
+
+  /**
+   * Summarize the jar (or classes directory) containing a class
+   */
+  private static String codeSourceKey(Class<?> klass) {
+    File location = codeSourceLocation(klass);
+    if (location == null)
+      return "?";
+    if (location.isDirectory())
+      return "" + MyTestUtils.dirSummary(location).hashCode();
+    return Digests.digestOf(location);
+  }
+
+  /**
+   * Get the jar (or classes directory) containing a class, or null if it's
+   * not known
+   */
+  private static File codeSourceLocation(Class<?> klass) {
+    CodeSource source = klass.getProtectionDomain().getCodeSource();
+    if (source == null || source.getLocation() == null)
+      return null;
+    try {
+      return new File(source.getLocation().toURI()).getAbsoluteFile();
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private final File mFile;
+  private final JSMap mMap;
+  private final Map<Class<?>, String> mClassKeys = concurrentHashMap();
+  private final List<String[]> mModifiedEntries = arrayList();
+  private String mLibrariesKey;
+  private Map<File, String> mClasspathKeys;
+}
@@ -0,0 +1,141 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import js.file.Files;
+
+/**
+ * Captures output (e.g. a redirected System.out) in memory, spilling it to a
+ * temporary file if it grows beyond a threshold. The output's digest is
+ * calculated as it is written, so it doesn't need to be read again to be
+ * hashed
+ */
+final class OutputCapture extends OutputStream {
+
+  public OutputCapture(String name) {
+    mName = name;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    mSingleByte[0] = (byte) b;
+    write(mSingleByte, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    mDigest.update(bytes, offset, length);
+    if (mSpillStream != null) {
+      mSpillStream.write(bytes, offset, length);
+      return;
+    }
+    if (mBufferUsed + length > SPILL_THRESHOLD) {
+      spill();
+      mSpillStream.write(bytes, offset, length);
+      return;
+    }
+    if (mBufferUsed + length > mBuffer.length)
+      mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mBufferUsed + length));
+    System.arraycopy(bytes, offset, mBuffer, mBufferUsed, length);
+    mBufferUsed += length;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (mSpillStream != null)
+      mSpillStream.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (mSpillStream != null) {
+      mSpillStream.close();
+      mSpillStream = null;
+    }
+  }
+
+  /**
+   * Write the captured output to a file (moving the spill file there, if
+   * there is one), and return its SHA-256 digest as a hex string
+   */
+  public String saveTo(File destination) {
+    try {
+      close();
+      if (mSpillFile != null) {
+        java.nio.file.Files.move(mSpillFile.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        mSpillFile = destination;
+      } else
+        java.nio.file.Files.write(destination.toPath(), Arrays.copyOf(mBuffer, mBufferUsed));
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+    return Digests.hex(mDigest.digest());
+  }
+
+  /**
+   * Get the captured output as a string. This reads the whole of it into
+   * memory, so should be avoided if it is very large
+   */
+  public String content() {
+    if (mSpillFile == null)
+      return new String(mBuffer, 0, mBufferUsed, StandardCharsets.UTF_8);
+    try {
+      flush();
+      return java.nio.file.Files.readString(mSpillFile.toPath());
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+  }
+
+  private void spill() throws IOException {
+    mSpillFile = File.createTempFile(mName + "-", null);
+    mSpillFile.deleteOnExit();
+    mSpillStream = new BufferedOutputStream(new FileOutputStream(mSpillFile), SPILL_BUFFER_SIZE);
+    mSpillStream.write(mBuffer, 0, mBufferUsed);
+    mBuffer = null;
+    mBufferUsed = 0;
+  }
+
+  private static final int SPILL_THRESHOLD = 8 << 20;
+  private static final int SPILL_BUFFER_SIZE = 64 << 10;
+
+  private final String mName;
+  private final MessageDigest mDigest = Digests.newDigest();
+  private final byte[] mSingleByte = new byte[1];
+  private byte[] mBuffer = new byte[8192];
+  private int mBufferUsed;
+  private File mSpillFile;
+  private OutputStream mSpillStream;
+}
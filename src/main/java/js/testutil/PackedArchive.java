@@ -0,0 +1,307 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import js.file.Files;
+
+/**
+ * A single file holding the contents of a directory tree (e.g. a test data
+ * directory, or a _REF reference copy), to avoid having many small files in
+ * the checkout.
+ * 
+ * The file starts with a header (magic number, entry count, index offset),
+ * followed by the contents of the files, then an index of their relative
+ * paths, offsets and lengths, sorted by path. The archive is memory-mapped,
+ * and entries are looked up by binary search and returned as slices of the
+ * mapped buffer, without copying.
+ * 
+ * Use 'PackedArchive pack <directory> [<archive>]' and 'PackedArchive unpack
+ * <archive> <directory>' to convert between the two forms
+ */
+public final class PackedArchive {
+
+  public static void main(String[] args) {
+    loadTools();
+    String command = (args.length >= 2) ? args[0] : "";
+    switch (command) {
+    case "pack": {
+      File dir = new File(args[1]);
+      pack(dir, (args.length > 2) ? new File(args[2]) : archiveFileFor(dir));
+    }
+      break;
+    case "unpack":
+      if (args.length != 3) {
+        pr("Usage: PackedArchive unpack <archive> <directory>");
+        break;
+      }
+      open(new File(args[1])).unpack(new File(args[2]));
+      break;
+    case "list":
+      for (String path : open(new File(args[1])).paths())
+        pr(path);
+      break;
+    default:
+      pr("Usage: PackedArchive pack <directory> [<archive>] | unpack <archive> <directory> | list <archive>");
+      break;
+    }
+  }
+
+  /**
+   * Get the archive that can stand in for a directory
+   */
+  public static File archiveFileFor(File dir) {
+    return new File(Files.parent(dir.getAbsoluteFile()), dir.getName() + EXT);
+  }
+
+  /**
+   * Write the files of a directory tree to an archive
+   */
+  public static void pack(File dir, File archiveFile) {
+    List<String> paths = arrayList();
+    collectPaths(dir, "", paths);
+    paths.sort(null);
+
+    File temp = new File(archiveFile.getPath() + ".tmp");
+    try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      out.position(HEADER_SIZE);
+      long[] offsets = new long[paths.size()];
+      long[] lengths = new long[paths.size()];
+      for (int i = 0; i < paths.size(); i++) {
+        offsets[i] = out.position();
+        try (FileChannel in = FileChannel.open(new File(dir, paths.get(i)).toPath(), StandardOpenOption.READ)) {
+          long length = in.size();
+          long copied = 0;
+          while (copied < length)
+            copied += in.transferTo(copied, length - copied, out);
+          lengths[i] = length;
+        }
+      }
+
+      long indexOffset = out.position();
+      for (int i = 0; i < paths.size(); i++) {
+        byte[] pathBytes = paths.get(i).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(4 + pathBytes.length + 16);
+        entry.putInt(pathBytes.length).put(pathBytes).putLong(offsets[i]).putLong(lengths[i]).flip();
+        writeFully(out, entry);
+      }
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putLong(MAGIC).putInt(paths.size()).putLong(indexOffset).flip();
+      out.position(0);
+      writeFully(out, header);
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+    try {
+      java.nio.file.Files.move(temp.toPath(), archiveFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+  }
+
+  /**
+   * Get a directory holding the unpacked contents of an archive (within the
+   * generated directory), unpacking it only if the archive has changed since
+   * it was last unpacked
+   */
+  public static File unpackedCopy(File archiveFile) {
+    String name = chomp(archiveFile.getName(), EXT);
+    File dir = new File(MyTestUtils.unitTestDirectory().getAbsoluteFile(), "generated/_unpacked_/" + name);
+    File stampFile = new File(dir.getPath() + ".stamp");
+    String stamp = archiveFile.length() + ":" + archiveFile.lastModified();
+    try {
+      if (dir.exists() && stampFile.exists()
+          && java.nio.file.Files.readString(stampFile.toPath()).equals(stamp))
+        return dir;
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+    open(archiveFile).unpack(dir);
+    Files.S.writeString(stampFile, stamp);
+    return dir;
+  }
+
+  /**
+   * Unpack an archive to a new directory (within the generated directory),
+   * which the caller should discard when it's no longer needed
+   */
+  public static File unpackTemporaryCopy(File archiveFile) {
+    File dir = new File(MyTestUtils.unitTestDirectory().getAbsoluteFile(),
+        "generated/_unpacked_/" + chomp(archiveFile.getName(), EXT) + "_" + uniqueSuffix());
+    open(archiveFile).unpack(dir);
+    return dir;
+  }
+
+  public static PackedArchive open(File archiveFile) {
+    return new PackedArchive(archiveFile);
+  }
+
+  private PackedArchive(File archiveFile) {
+    mFile = archiveFile;
+    try (FileChannel channel = FileChannel.open(archiveFile.toPath(), StandardOpenOption.READ)) {
+      checkState(channel.size() <= Integer.MAX_VALUE, "archive is too large to map:", archiveFile);
+      mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+    if (mBuffer.getLong(0) != MAGIC)
+      throw badState("not a packed archive:", archiveFile);
+    int count = mBuffer.getInt(8);
+    int position = (int) mBuffer.getLong(12);
+    mPaths = new String[count];
+    mOffsets = new long[count];
+    mLengths = new long[count];
+    for (int i = 0; i < count; i++) {
+      int pathLength = mBuffer.getInt(position);
+      byte[] pathBytes = new byte[pathLength];
+      ByteBuffer pathBuffer = mBuffer.duplicate();
+      pathBuffer.position(position + 4);
+      pathBuffer.get(pathBytes);
+      position += 4 + pathLength;
+      mPaths[i] = new String(pathBytes, StandardCharsets.UTF_8);
+      mOffsets[i] = mBuffer.getLong(position);
+      mLengths[i] = mBuffer.getLong(position + 8);
+      position += 16;
+    }
+  }
+
+  public File file() {
+    return mFile;
+  }
+
+  public List<String> paths() {
+    return Arrays.asList(mPaths.clone());
+  }
+
+  /**
+   * Get the contents of an entry, as a read-only slice of the archive, or null
+   * if there is no such entry
+   */
+  public ByteBuffer lookup(String path) {
+    int i = Arrays.binarySearch(mPaths, path);
+    if (i < 0)
+      return null;
+    ByteBuffer entry = mBuffer.duplicate();
+    entry.position((int) mOffsets[i]);
+    entry.limit((int) (mOffsets[i] + mLengths[i]));
+    return entry.slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * Write the archive's files to a directory. The files are written to a
+   * temporary directory, which is then renamed into place, so that concurrent
+   * processes don't see a partially written copy
+   */
+  public void unpack(File dir) {
+    File temp = new File(dir.getPath() + "_" + uniqueSuffix() + ".tmp");
+    Files.S.remakeDirs(temp);
+    for (int i = 0; i < mPaths.length; i++) {
+      File target = new File(temp, mPaths[i]);
+      Files.S.mkdirs(Files.parent(target));
+      try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        writeFully(out, lookup(mPaths[i]));
+      } catch (IOException e) {
+        throw Files.asFileException(e);
+      }
+    }
+
+    // Rename any existing copy aside (a non-empty directory can't be replaced
+    // by a rename), move the new one into place, and only then discard the old
+    File old = null;
+    if (dir.exists()) {
+      old = new File(dir.getPath() + "_" + uniqueSuffix() + ".old");
+      try {
+        java.nio.file.Files.move(dir.toPath(), old.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        // Another process may have moved it aside first
+        old = null;
+      }
+    }
+    try {
+      java.nio.file.Files.move(temp.toPath(), dir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // Another process may have unpacked it first
+      if (!dir.exists())
+        throw Files.asFileException(e);
+      Trash.discard(temp);
+    }
+    if (old != null)
+      Trash.discard(old);
+  }
+
+  private static void collectPaths(File dir, String prefix, List<String> output) {
+    for (File f : MyTestUtils.files(dir)) {
+      if (f.getName().equals(".DS_Store"))
+        continue;
+      if (f.isDirectory())
+        collectPaths(f, prefix + f.getName() + "/", output);
+      else
+        output.add(prefix + f.getName());
+    }
+  }
+
+  /**
+   * Get a suffix that distinguishes a temporary name from those chosen by
+   * other threads and processes
+   */
+  private static String uniqueSuffix() {
+    return ProcessHandle.current().pid() + "_" + sCounter.incrementAndGet();
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+  }
+
+  public static final String EXT = ".pack";
+
+  private static final long MAGIC = 0x4a535041434b3031L; // "JSPACK01"
+  private static final int HEADER_SIZE = 8 + 4 + 8;
+
+  private static final AtomicInteger sCounter = new AtomicInteger();
+
+  private final File mFile;
+  private final MappedByteBuffer mBuffer;
+  private final String[] mPaths;
+  private final long[] mOffsets;
+  private final long[] mLengths;
+}
@@ -0,0 +1,67 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.junit.runners.model.RunnerScheduler;
+
+/**
+ * Runs the children of a test runner concurrently, with a limit on how many
+ * run at once (see ThreadSupport)
+ */
+final class ParallelScheduler implements RunnerScheduler {
+
+  public ParallelScheduler(String name, int threads) {
+    mExecutor = ThreadSupport.newExecutor(name, threads);
+  }
+
+  @Override
+  public void schedule(Runnable childStatement) {
+    mFutures.add(mExecutor.submit(childStatement));
+  }
+
+  @Override
+  public void finished() {
+    try {
+      // The child statements report their own failures to the RunNotifier, so
+      // we just need to wait for them to complete
+      for (Future<?> f : mFutures)
+        f.get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw die("Failed waiting for test to complete", e);
+    } finally {
+      mExecutor.shutdown();
+    }
+  }
+
+  private final ExecutorService mExecutor;
+  private final List<Future<?>> mFutures = arrayList();
+}
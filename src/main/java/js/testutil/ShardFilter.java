@@ -0,0 +1,139 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+
+/**
+ * Selects the tests belonging to one shard of a suite that is being split
+ * across several processes (or machines).
+ * 
+ * If a snapshot of the TestHistory is supplied (see
+ * TestConfig.shardHistory()), the tests that appear in it are partitioned by
+ * their recorded durations, so each shard gets about the same amount of work:
+ * they are assigned, longest first, to whichever shard has the least work so
+ * far. Other tests are assigned by a hash of their names. The live history
+ * file isn't used, since the shards update it while they run, and shards
+ * starting at different times would partition the tests differently
+ */
+final class ShardFilter extends Filter {
+
+  public static ShardFilter sharedInstance() {
+    if (sInstance == null) {
+      synchronized (ShardFilter.class) {
+        if (sInstance == null)
+          sInstance = new ShardFilter(TestConfig.shardIndex(), TestConfig.shardCount(), frozenDurations());
+      }
+    }
+    return sInstance;
+  }
+
+  private static volatile ShardFilter sInstance;
+
+  private static Map<String, Long> frozenDurations() {
+    String path = TestConfig.shardHistory();
+    if (path.isEmpty())
+      return hashMap();
+    return TestHistory.durationsIn(new File(path));
+  }
+
+  /**
+   * Construct a filter for a particular shard, partitioning the tests using
+   * some durations (keyed by "<class name>.<test name>")
+   */
+  static ShardFilter forShard(int shardIndex, int shardCount, Map<String, Long> durations) {
+    return new ShardFilter(shardIndex, shardCount, durations);
+  }
+
+  private ShardFilter(int shardIndex, int shardCount, Map<String, Long> durations) {
+    checkArgument(shardCount > 0 && shardIndex >= 0 && shardIndex < shardCount, "bad shard index/count:",
+        shardIndex, shardCount);
+    mShardIndex = shardIndex;
+    mShardCount = shardCount;
+
+    List<String> keys = arrayList();
+    keys.addAll(durations.keySet());
+    // Sort by decreasing duration, then by name
+    keys.sort((a, b) -> {
+      int result = Long.compare(durations.get(b), durations.get(a));
+      if (result == 0)
+        result = a.compareTo(b);
+      return result;
+    });
+
+    long[] shardTotals = new long[shardCount];
+    for (String key : keys) {
+      int shard = 0;
+      for (int i = 1; i < shardCount; i++)
+        if (shardTotals[i] < shardTotals[shard])
+          shard = i;
+      shardTotals[shard] += Math.max(1, durations.get(key));
+      mAssignments.put(key, shard);
+    }
+  }
+
+  @Override
+  public boolean shouldRun(Description description) {
+    if (description.getMethodName() == null) {
+      // Run a class (or suite) if any of its children are to be run
+      for (Description child : description.getChildren())
+        if (shouldRun(child))
+          return true;
+      return false;
+    }
+    return includes(TestHistory.simpleClassName(description) + "." + description.getMethodName());
+  }
+
+  /**
+   * Determine if a test (with key "<class name>.<test name>") belongs to this
+   * shard
+   */
+  public boolean includes(String key) {
+    return shardFor(key) == mShardIndex;
+  }
+
+  @Override
+  public String describe() {
+    return "shard " + mShardIndex + " of " + mShardCount;
+  }
+
+  private int shardFor(String key) {
+    Integer shard = mAssignments.get(key);
+    if (shard == null)
+      shard = (key.hashCode() & 0x7fffffff) % mShardCount;
+    return shard;
+  }
+
+  private final int mShardIndex;
+  private final int mShardCount;
+  private final Map<String, Integer> mAssignments = hashMap();
+}
@@ -0,0 +1,86 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import js.file.Files;
+import js.json.JSMap;
+
+/**
+ * Updates JSON files that other processes (e.g., other shards of a test run)
+ * may be updating at the same time. An update re-reads the file while holding
+ * an exclusive lock, applies only the caller's changes to it, and replaces the
+ * file atomically
+ */
+final class SharedJsonFile {
+
+  public static void update(File file, Consumer<JSMap> modifier) {
+    File absFile = file.getAbsoluteFile();
+    File dir = Files.parent(absFile);
+    if (!dir.exists())
+      Files.S.mkdirs(dir);
+
+    withLock(absFile, () -> {
+      JSMap map = JSMap.fromFileIfExists(absFile);
+      modifier.accept(map);
+      File tempFile = new File(dir, absFile.getName() + ".tmp");
+      Files.S.writeString(tempFile, map.prettyPrint());
+      try {
+        java.nio.file.Files.move(tempFile.toPath(), absFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        throw Files.asFileException(e);
+      }
+    });
+  }
+
+  /**
+   * Perform an action while holding the exclusive (cross-process) lock
+   * associated with a file's name. The lock can't be taken twice within a
+   * process, so callers must guard against concurrent use by their own threads
+   */
+  public static void withLock(File file, Runnable action) {
+    // Keep the lock files out of the unit_test directory, since its contents are (mostly) 
+    // under version control
+    File lockDir = Files.S
+        .mkdirs(new File(FileManager.UNIT_TEST_DIRECTORY.getAbsoluteFile(), "generated/_locks_"));
+    File lockFile = new File(lockDir, file.getName() + ".lock");
+
+    try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE); FileLock lock = channel.lock()) {
+      action.run();
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+  }
+
+}
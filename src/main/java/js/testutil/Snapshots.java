@@ -0,0 +1,110 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+import js.file.Files;
+
+/**
+ * Creates snapshots of directory trees (e.g. the _REF reference copies),
+ * avoiding writing the files' contents again where possible
+ */
+final class Snapshots {
+
+  /**
+   * Create a copy of a directory tree, which must not already exist. If
+   * hard links are allowed, the files are linked rather than copied (falling
+   * back to copying if the filesystem doesn't support this); this is only safe
+   * if the source files will be replaced, rather than modified, in future.
+   * Otherwise, the files are copied concurrently
+   */
+  public static void snapshot(File sourceDir, File targetDir, boolean allowHardLinks) {
+    checkState(!targetDir.exists(), "snapshot target already exists:", targetDir);
+    List<File> relFiles = arrayList();
+    collectFiles(sourceDir, targetDir, null, relFiles);
+
+    int linked = 0;
+    if (allowHardLinks) {
+      for (File relFile : relFiles) {
+        try {
+          java.nio.file.Files.createLink(new File(targetDir, relFile.getPath()).toPath(),
+              new File(sourceDir, relFile.getPath()).toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+          // Probably on a different filesystem from the source, or one without hard links
+          break;
+        }
+        linked++;
+      }
+    }
+
+    List<ForkJoinTask<?>> tasks = arrayList();
+    for (File relFile : relFiles.subList(linked, relFiles.size()))
+      tasks.add(ForkJoinTask.adapt(() -> copyFile(new File(sourceDir, relFile.getPath()),
+          new File(targetDir, relFile.getPath()))));
+    ForkJoinTask.invokeAll(tasks);
+  }
+
+  /**
+   * Move a directory by renaming it atomically, if possible
+   */
+  public static void move(File sourceDir, File targetDir) {
+    try {
+      java.nio.file.Files.move(sourceDir.toPath(), targetDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | UnsupportedOperationException e) {
+      Files.S.moveDirectory(sourceDir, targetDir);
+    }
+  }
+
+  /**
+   * Create the target's directories, and collect the relative paths of the
+   * files to be copied into them
+   */
+  private static void collectFiles(File sourceDir, File targetDir, File relDir, List<File> output) {
+    Files.S.mkdirs(targetDir);
+    for (File f : MyTestUtils.files(sourceDir)) {
+      File relPath = (relDir == null) ? new File(f.getName()) : new File(relDir, f.getName());
+      if (f.isDirectory())
+        collectFiles(f, new File(targetDir, f.getName()), relPath, output);
+      else
+        output.add(relPath);
+    }
+  }
+
+  private static void copyFile(File source, File target) {
+    try {
+      // This can use the operating system's copying facilities, which may clone the file
+      java.nio.file.Files.copy(source.toPath(), target.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+    } catch (IOException e) {
+      throw Files.asFileException(e);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+/**
+ * Options that affect how unit tests are run. These are read from system
+ * properties with the prefix "testutil.", e.g. -Dtestutil.threads=8
+ */
+final class TestConfig {
+
+  /**
+   * Number of threads to use when running the methods of a test class; if
+   * less than 2, they are run serially
+   */
+  public static int threads() {
+    return intValue("threads", 1);
+  }
+
+  /**
+   * Whether tests should be run in virtual threads, if they are available
+   * (Java 21+)
+   */
+  public static boolean virtualThreads() {
+    return booleanValue("virtualThreads", true);
+  }
+
+  /**
+   * Whether tests that have already passed with the same inputs should be
+   * skipped (see OutcomeCache)
+   */
+  public static boolean skipUnchanged() {
+    return booleanValue("skipUnchanged", false);
+  }
+
+  /**
+   * Number of tests to include in the timing report's list of slowest tests
+   */
+  public static int slowestCount() {
+    return intValue("slowestCount", 20);
+  }
+
+  /**
+   * Number of shards the suite is divided into, for running it in separate
+   * processes (see ShardFilter)
+   */
+  public static int shardCount() {
+    return intValue("shardCount", 1);
+  }
+
+  /**
+   * Index of the shard (0...shardCount-1) to be run by this process
+   */
+  public static int shardIndex() {
+    return intValue("shardIndex", 0);
+  }
+
+  /**
+   * Path of a snapshot of the test history, used to partition the tests
+   * among shards by their durations. Every shard must be given the same
+   * snapshot, and it must not be the live history file (which the shards
+   * update as they run). If empty, tests are partitioned by a hash of their
+   * names
+   */
+  public static String shardHistory() {
+    return System.getProperty(PREFIX + "shardHistory", "");
+  }
+
+  /**
+   * The order in which to run tests: "failfast" runs tests that failed
+   * recently first, then the others in order of increasing duration; otherwise,
+   * the default order is used
+   */
+  public static boolean failFastOrder() {
+    return "failfast".equals(System.getProperty(PREFIX + "order"));
+  }
+
+  /**
+   * If nonzero, run only as many tests as are expected to complete within this
+   * many seconds (see BudgetFilter)
+   */
+  public static int budgetSeconds() {
+    return intValue("budgetSeconds", 0);
+  }
+
+  /**
+   * Whether hash codes should be read from the binary index (see HashIndex)
+   * instead of from each test class's JSON file
+   */
+  public static boolean hashIndex() {
+    return booleanValue("hashIndex", false);
+  }
+
+  /**
+   * Whether tests using assertHash() whose registered hash codes were derived
+   * from Object.hashCode() should, if they pass, have them replaced with ones
+   * derived from CanonicalDigest
+   */
+  public static boolean migrateDigests() {
+    return booleanValue("migrateDigests", false);
+  }
+
+  /**
+   * Whether files written by generateMessage() should be kept in memory,
+   * rather than written to the generated directory. They are written to disk
+   * only if necessary: if the test fails or is verbose, if the generated
+   * directory is otherwise accessed, or to create the reference copy
+   */
+  public static boolean memoryGenerated() {
+    return booleanValue("memoryGenerated", false);
+  }
+
+  /**
+   * Whether FileManager should keep the reference copies of generated
+   * directories in a content-addressed store (see BlobStore), rather than in
+   * _REF directories
+   */
+  public static boolean blobStore() {
+    return booleanValue("blobStore", false);
+  }
+
+  private static int intValue(String key, int defaultValue) {
+    return Integer.getInteger(PREFIX + key, defaultValue);
+  }
+
+  private static boolean booleanValue(String key, boolean defaultValue) {
+    String value = System.getProperty(PREFIX + key);
+    if (value == null)
+      return defaultValue;
+    return Boolean.parseBoolean(value);
+  }
+
+  private static final String PREFIX = "testutil.";
+
+}
@@ -0,0 +1,278 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Sorter;
+
+import js.base.BaseObject;
+import js.json.JSMap;
+
+/**
+ * Records information about previous runs of unit tests (e.g. how long each
+ * test took), so it can be used to schedule later runs
+ */
+final class TestHistory extends BaseObject {
+
+  public static TestHistory sharedInstance() {
+    return sInstance;
+  }
+
+  private static final TestHistory sInstance = new TestHistory();
+
+  private TestHistory() {
+    mFile = new File(FileManager.UNIT_TEST_DIRECTORY, "_test_history_.json");
+    mMap = JSMap.fromFileIfExists(mFile);
+  }
+
+  @Override
+  public synchronized JSMap toJson() {
+    return mMap;
+  }
+
+  /**
+   * Get the (rolling average) duration of a test, in milliseconds; or -1 if
+   * it hasn't been run before
+   */
+  public synchronized long durationMs(String className, String testName) {
+    JSMap classMap = mMap.optJSMap(className);
+    if (classMap == null)
+      return -1;
+    JSMap entry = classMap.optJSMap(testName);
+    if (entry == null)
+      return -1;
+    return entry.opt(KEY_DURATION, -1L);
+  }
+
+  /**
+   * Get the total duration of a class's tests, in milliseconds; or -1 if it
+   * hasn't been run before
+   */
+  public synchronized long classDurationMs(String className) {
+    JSMap classMap = mMap.optJSMap(className);
+    if (classMap == null)
+      return -1;
+    long total = 0;
+    for (String testName : classMap.keySet())
+      total += Math.max(0, durationMs(className, testName));
+    return total;
+  }
+
+  /**
+   * Get the durations of every test in the history, keyed by
+   * "<class name>.<test name>", in sorted order
+   */
+  public synchronized Map<String, Long> allDurations() {
+    return durations(mMap);
+  }
+
+  /**
+   * Get the durations of every test in a history file (e.g. a snapshot of the
+   * history taken before a sharded run), in the form returned by
+   * allDurations()
+   */
+  public static Map<String, Long> durationsIn(File historyFile) {
+    return durations(JSMap.from(historyFile));
+  }
+
+  private static Map<String, Long> durations(JSMap historyMap) {
+    Map<String, Long> result = new TreeMap<>();
+    for (String className : historyMap.keySet()) {
+      JSMap classMap = historyMap.optJSMap(className);
+      for (String testName : classMap.keySet())
+        result.put(className + "." + testName, classMap.optJSMap(testName).opt(KEY_DURATION, -1L));
+    }
+    return result;
+  }
+
+  public synchronized void recordDuration(String className, String testName, long durationMs) {
+    JSMap entry = entry(className, testName);
+    long previous = entry.opt(KEY_DURATION, -1L);
+    // Use a rolling average, so a single slow run doesn't distort the schedule
+    long average = (previous < 0) ? durationMs : (previous * 3 + durationMs) / 4;
+    entry.put(KEY_DURATION, average);
+    mModifiedEntries.add(new String[] { className, testName });
+  }
+
+  /**
+   * Record whether a test passed or failed
+   */
+  public synchronized void recordOutcome(String className, String testName, boolean passed) {
+    JSMap entry = entry(className, testName);
+    entry.put(KEY_PASSED, passed);
+    if (!passed)
+      entry.put(KEY_FAILED_AT, System.currentTimeMillis());
+    mModifiedEntries.add(new String[] { className, testName });
+  }
+
+  /**
+   * If a test failed recently (on its most recent run, or within the last
+   * day), get the time of that failure; otherwise, return -1
+   */
+  public synchronized long recentFailureTime(String className, String testName) {
+    JSMap classMap = mMap.optJSMap(className);
+    if (classMap == null)
+      return -1;
+    JSMap entry = classMap.optJSMap(testName);
+    if (entry == null)
+      return -1;
+    long failedAt = entry.opt(KEY_FAILED_AT, -1L);
+    if (failedAt < 0)
+      return -1;
+    if (!entry.opt(KEY_PASSED, true) || System.currentTimeMillis() - failedAt < RECENT_FAILURE_MS)
+      return failedAt;
+    return -1;
+  }
+
+  /**
+   * Get the time of the most recent of a class's recent failures, or -1 if
+   * none of its tests failed recently
+   */
+  public synchronized long classRecentFailureTime(String className) {
+    JSMap classMap = mMap.optJSMap(className);
+    if (classMap == null)
+      return -1;
+    long result = -1;
+    for (String testName : classMap.keySet())
+      result = Math.max(result, recentFailureTime(className, testName));
+    return result;
+  }
+
+  /**
+   * Write the history to the filesystem, if it has changed. Only the entries
+   * we've modified are written, in case other processes (e.g. other shards)
+   * are updating it as well
+   */
+  public synchronized void flush() {
+    if (mModifiedEntries.isEmpty())
+      return;
+    log("write history", INDENT, mMap);
+    SharedJsonFile.update(mFile, (m) -> {
+      for (String[] key : mModifiedEntries)
+        classMap(m, key[0]).put(key[1], entry(key[0], key[1]));
+    });
+    mModifiedEntries.clear();
+  }
+
+  /**
+   * Construct a Sorter that orders test classes and test methods so the ones
+   * that have taken the longest appear first. Tests that haven't been run
+   * before are placed before all others, since they may be slow
+   */
+  public Sorter longestFirstSorter() {
+    Comparator<Description> comparator = (a, b) -> Long.compare(estimatedDuration(b), estimatedDuration(a));
+    return new Sorter(comparator);
+  }
+
+  /**
+   * Construct a Sorter that orders test classes and methods so that the ones
+   * that failed recently appear first (most recent failure first), then the
+   * others by increasing duration. The intent is to report failures as soon as
+   * possible
+   */
+  public Sorter failFastSorter() {
+    Comparator<Description> comparator = (a, b) -> {
+      int result = Long.compare(recentFailureTime(b), recentFailureTime(a));
+      if (result == 0)
+        result = Long.compare(Math.max(0, knownDuration(a)), Math.max(0, knownDuration(b)));
+      return result;
+    };
+    return new Sorter(comparator);
+  }
+
+  private long recentFailureTime(Description description) {
+    String className = simpleClassName(description);
+    if (description.getMethodName() == null)
+      return classRecentFailureTime(className);
+    return recentFailureTime(className, description.getMethodName());
+  }
+
+  private long estimatedDuration(Description description) {
+    long duration = knownDuration(description);
+    if (duration < 0)
+      duration = Long.MAX_VALUE;
+    return duration;
+  }
+
+  /**
+   * Get the duration of a test class or method, or -1 if unknown
+   */
+  private long knownDuration(Description description) {
+    String className = simpleClassName(description);
+    if (description.getMethodName() == null)
+      return classDurationMs(className);
+    return durationMs(className, description.getMethodName());
+  }
+
+  /**
+   * Get the simple name of the test class associated with a Description; we
+   * use these (as HashCodeRegistry does) as keys
+   */
+  public static String simpleClassName(Description description) {
+    String name = nullToEmpty(description.getClassName());
+    return name.substring(name.lastIndexOf('.') + 1);
+  }
+
+  private JSMap entry(String className, String testName) {
+    return entry(mMap, className, testName);
+  }
+
+  private static JSMap classMap(JSMap historyMap, String className) {
+    JSMap classMap = historyMap.optJSMap(className);
+    if (classMap == null) {
+      classMap = map();
+      historyMap.put(className, classMap);
+    }
+    return classMap;
+  }
+
+  private static JSMap entry(JSMap historyMap, String className, String testName) {
+    JSMap classMap = classMap(historyMap, className);
+    JSMap entry = classMap.optJSMap(testName);
+    if (entry == null) {
+      entry = map();
+      classMap.put(testName, entry);
+    }
+    return entry;
+  }
+
+  private static final String KEY_DURATION = "ms";
+  private static final String KEY_PASSED = "passed";
+  private static final String KEY_FAILED_AT = "failed_at";
+
+  private static final long RECENT_FAILURE_MS = 24 * 3600 * 1000L;
+
+  private final File mFile;
+  private final JSMap mMap;
+  private final List<String[]> mModifiedEntries = arrayList();
+}
@@ -0,0 +1,75 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+/**
+ * A bounded log of a test's messages, held in memory so that it can be
+ * discarded if the test succeeds, or displayed if it fails. Only the most
+ * recent messages are retained; recording a message just stores a reference
+ * to it, and the log is only assembled when it is displayed
+ */
+final class TestLog {
+
+  public TestLog(int capacity) {
+    mEntries = new String[capacity];
+  }
+
+  public synchronized void add(String message) {
+    mEntries[mNext] = message;
+    mNext = (mNext + 1) % mEntries.length;
+    mCount++;
+  }
+
+  public synchronized boolean isEmpty() {
+    return mCount == 0;
+  }
+
+  public synchronized void clear() {
+    for (int i = 0; i < mEntries.length; i++)
+      mEntries[i] = null;
+    mCount = 0;
+    mNext = 0;
+  }
+
+  /**
+   * Format the retained messages, oldest first
+   */
+  public synchronized String format(String title) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("--- Log for ").append(title);
+    int retained = (int) Math.min(mCount, mEntries.length);
+    if (mCount > retained)
+      sb.append(" (").append(mCount - retained).append(" earlier messages discarded)");
+    sb.append(" ---\n");
+    int start = (mNext - retained + mEntries.length) % mEntries.length;
+    for (int i = 0; i < retained; i++)
+      sb.append(mEntries[(start + i) % mEntries.length]).append('\n');
+    return sb.toString();
+  }
+
+  private final String[] mEntries;
+  private int mNext;
+  private long mCount;
+}
@@ -0,0 +1,290 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * A replacement for System.out (or System.err) that sends output to a
+ * destination associated with the current thread, so tests running
+ * concurrently can each capture their own output.
+ * 
+ * The destination is inherited by threads created by the capturing thread
+ * (e.g. those of the test's ExecutionContext); threads that already existed,
+ * such as those of a shared pool, are not affected. When a capture ends, any
+ * threads that inherited it revert to the original stream.
+ * 
+ * Each destination has its own PrintStream, so threads writing to different
+ * destinations don't contend for a single PrintStream's lock
+ */
+final class ThreadOutput {
+
+  public static final ThreadOutput OUT = new ThreadOutput(false);
+  public static final ThreadOutput ERR = new ThreadOutput(true);
+
+  private ThreadOutput(boolean err) {
+    mErr = err;
+  }
+
+  /**
+   * Start sending the current thread's (and its future child threads') output
+   * to a destination
+   */
+  public void capture(OutputStream destination) {
+    install();
+    Target target = new Target();
+    target.stream = new PrintStream(destination, false);
+    mTarget.set(target);
+  }
+
+  /**
+   * Stop capturing the current thread's output
+   */
+  public void release() {
+    Target target = mTarget.get();
+    if (target != null) {
+      PrintStream stream = target.stream;
+      // Threads that inherited this target will see that it's no longer active
+      target.stream = null;
+      mTarget.remove();
+      if (stream != null)
+        stream.flush();
+    }
+  }
+
+  /**
+   * Replace the system stream with the demultiplexing stream, if it hasn't
+   * been already. The original stream is recorded only the first time, so it
+   * remains the default even if something else replaces the system stream
+   * later
+   */
+  private synchronized void install() {
+    PrintStream current = mErr ? System.err : System.out;
+    if (mStream != null && current == mStream)
+      return;
+    if (mDefault == null)
+      mDefault = current;
+    if (mStream == null)
+      mStream = new DemultiplexingStream(this);
+    if (mErr)
+      System.setErr(mStream);
+    else
+      System.setOut(mStream);
+  }
+
+  private PrintStream destination() {
+    Target target = mTarget.get();
+    if (target != null) {
+      PrintStream stream = target.stream;
+      if (stream != null)
+        return stream;
+    }
+    return mDefault;
+  }
+
+  private static final class Target {
+    volatile PrintStream stream;
+  }
+
+  /**
+   * A PrintStream that forwards each call to the current thread's destination,
+   * without locking itself
+   */
+  private static final class DemultiplexingStream extends PrintStream {
+
+    DemultiplexingStream(ThreadOutput owner) {
+      super(OutputStream.nullOutputStream(), false);
+      mOwner = owner;
+    }
+
+    private PrintStream destination() {
+      return mOwner.destination();
+    }
+
+    @Override
+    public void write(int b) {
+      destination().write(b);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+      destination().write(buf, off, len);
+    }
+
+    @Override
+    public void flush() {
+      destination().flush();
+    }
+
+    @Override
+    public void close() {
+      destination().flush();
+    }
+
+    @Override
+    public boolean checkError() {
+      return destination().checkError();
+    }
+
+    @Override
+    public void print(boolean b) {
+      destination().print(b);
+    }
+
+    @Override
+    public void print(char c) {
+      destination().print(c);
+    }
+
+    @Override
+    public void print(int i) {
+      destination().print(i);
+    }
+
+    @Override
+    public void print(long l) {
+      destination().print(l);
+    }
+
+    @Override
+    public void print(float f) {
+      destination().print(f);
+    }
+
+    @Override
+    public void print(double d) {
+      destination().print(d);
+    }
+
+    @Override
+    public void print(char[] s) {
+      destination().print(s);
+    }
+
+    @Override
+    public void print(String s) {
+      destination().print(s);
+    }
+
+    @Override
+    public void print(Object obj) {
+      destination().print(obj);
+    }
+
+    @Override
+    public void println() {
+      destination().println();
+    }
+
+    @Override
+    public void println(boolean x) {
+      destination().println(x);
+    }
+
+    @Override
+    public void println(char x) {
+      destination().println(x);
+    }
+
+    @Override
+    public void println(int x) {
+      destination().println(x);
+    }
+
+    @Override
+    public void println(long x) {
+      destination().println(x);
+    }
+
+    @Override
+    public void println(float x) {
+      destination().println(x);
+    }
+
+    @Override
+    public void println(double x) {
+      destination().println(x);
+    }
+
+    @Override
+    public void println(char[] x) {
+      destination().println(x);
+    }
+
+    @Override
+    public void println(String x) {
+      destination().println(x);
+    }
+
+    @Override
+    public void println(Object x) {
+      destination().println(x);
+    }
+
+    @Override
+    public PrintStream printf(String format, Object... args) {
+      return destination().printf(format, args);
+    }
+
+    @Override
+    public PrintStream printf(Locale l, String format, Object... args) {
+      return destination().printf(l, format, args);
+    }
+
+    @Override
+    public PrintStream format(String format, Object... args) {
+      return destination().format(format, args);
+    }
+
+    @Override
+    public PrintStream format(Locale l, String format, Object... args) {
+      return destination().format(l, format, args);
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq) {
+      return destination().append(csq);
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq, int start, int end) {
+      return destination().append(csq, start, end);
+    }
+
+    @Override
+    public PrintStream append(char c) {
+      return destination().append(c);
+    }
+
+    private final ThreadOutput mOwner;
+  }
+
+  private final boolean mErr;
+  private final InheritableThreadLocal<Target> mTarget = new InheritableThreadLocal<>();
+  private volatile PrintStream mDefault;
+  private PrintStream mStream;
+}
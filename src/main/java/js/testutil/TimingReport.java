@@ -0,0 +1,141 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.util.List;
+
+import js.base.BaseObject;
+import js.json.JSList;
+import js.json.JSMap;
+
+/**
+ * Collects the timing of each unit test run within this JVM, and merges them
+ * into a report in the unit_test directory that includes the slowest tests,
+ * and warnings for tests that have become slower than their (rolling average)
+ * durations from earlier runs. The report holds the most recent timing of
+ * each test, so it can combine those of several processes (e.g. the shards of
+ * a test run)
+ */
+final class TimingReport extends BaseObject {
+
+  public static TimingReport sharedInstance() {
+    return sInstance;
+  }
+
+  private static final TimingReport sInstance = new TimingReport();
+
+  private TimingReport() {
+    mFile = new File(FileManager.UNIT_TEST_DIRECTORY, "_timing_report_.json");
+  }
+
+  /**
+   * Record the times (in milliseconds) for a unit test: wall time, CPU time,
+   * and time spent calculating hashes of its output
+   */
+  public synchronized void record(String className, String testName, long wallMs, long cpuMs, long hashMs) {
+    String key = className + "." + testName;
+    mTests.put(key, map().put("wall_ms", wallMs).put("cpu_ms", cpuMs).put("hash_ms", hashMs));
+
+    long baselineMs = TestHistory.sharedInstance().durationMs(className, testName);
+    if (baselineMs >= 0 && wallMs > baselineMs * SLOWDOWN_FACTOR && wallMs - baselineMs >= MIN_SLOWDOWN_MS) {
+      String message = key + " took " + wallMs + " ms; its baseline is " + baselineMs + " ms";
+      pr("*** Slow test:", message);
+      mWarnings.put(key, message);
+    }
+  }
+
+  /**
+   * Merge the timings recorded since the last flush into the report. Other
+   * processes (e.g. other shards) may be updating it as well, so this is done
+   * with SharedJsonFile
+   */
+  public synchronized void flush() {
+    if (mTests.keySet().isEmpty())
+      return;
+    SharedJsonFile.update(mFile, (report) -> {
+      JSMap tests = jsMapValue(report, "tests");
+      JSMap oldWarnings = jsMapValue(report, "warnings");
+      JSMap warnings = map();
+      // Discard any earlier warnings for the tests we've timed
+      for (String key : oldWarnings.keySet())
+        if (!mTests.keySet().contains(key))
+          warnings.put(key, oldWarnings.opt(key, ""));
+      for (String key : mTests.keySet()) {
+        tests.put(key, mTests.optJSMap(key));
+        if (mWarnings.keySet().contains(key))
+          warnings.put(key, mWarnings.opt(key, ""));
+      }
+
+      List<Entry> entries = arrayList();
+      for (String key : tests.keySet())
+        entries.add(new Entry(key, tests.optJSMap(key).opt("wall_ms", 0L)));
+      entries.sort((a, b) -> Long.compare(b.wallMs, a.wallMs));
+      JSList slowest = list();
+      int count = Math.min(entries.size(), TestConfig.slowestCount());
+      for (int i = 0; i < count; i++) {
+        Entry ent = entries.get(i);
+        slowest.add(map().put("test", ent.key).put("wall_ms", ent.wallMs));
+      }
+
+      report.put("tests", tests) //
+          .put("slowest", slowest) //
+          .put("warnings", warnings);
+    });
+    mTests = map();
+    mWarnings = map();
+  }
+
+  /**
+   * Get a map from the report, or an empty one if it's missing (or in an
+   * older format)
+   */
+  private static JSMap jsMapValue(JSMap report, String key) {
+    Object value = report.wrappedMap().get(key);
+    return (value instanceof JSMap) ? (JSMap) value : map();
+  }
+
+  private static final class Entry {
+    Entry(String key, long wallMs) {
+      this.key = key;
+      this.wallMs = wallMs;
+    }
+
+    final String key;
+    final long wallMs;
+  }
+
+  // A test is reported as slow if it takes this much longer than its baseline
+  private static final double SLOWDOWN_FACTOR = 1.5;
+  // ...and at least this many milliseconds longer
+  private static final long MIN_SLOWDOWN_MS = 100;
+
+  private final File mFile;
+  // The timings and warnings recorded since the last flush, keyed by test
+  private JSMap mTests = map();
+  private JSMap mWarnings = map();
+}
@@ -0,0 +1,133 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import js.file.Files;
+
+/**
+ * Deletes directories in the background. A directory is renamed into a trash
+ * area (which is atomic, and quick), and a background thread deletes it later,
+ * so the test doesn't wait for this. Any deletions still pending when the JVM
+ * exits are finished by a shutdown hook, and any trash left by an earlier
+ * process (that was killed, say) is deleted when the first directory is
+ * discarded
+ */
+final class Trash {
+
+  /**
+   * Delete a directory (if it exists)
+   */
+  public static void discard(File dir) {
+    if (!dir.exists())
+      return;
+    File trashDir = trashDir();
+    File target = new File(trashDir, dir.getName() + "_" + ProcessHandle.current().pid() + "_"
+        + sCounter.incrementAndGet());
+    try {
+      Files.S.mkdirs(trashDir);
+      java.nio.file.Files.move(dir.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | UnsupportedOperationException e) {
+      // Probably on a different filesystem than the trash area; delete it now
+      Files.S.deleteDirectory(dir);
+      return;
+    }
+    reaper().execute(() -> Files.S.deleteDirectory(target));
+  }
+
+  /**
+   * Replace a directory with an empty one
+   */
+  public static void remakeDirs(File dir) {
+    discard(dir);
+    Files.S.mkdirs(dir);
+  }
+
+  private static synchronized ExecutorService reaper() {
+    if (sReaper == null) {
+      sReaper = ThreadSupport.newExecutor("trash-reaper", 1);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> drain()));
+
+      // Delete any trash left by earlier processes (but not by other processes still running)
+      File[] leftovers = trashDir().listFiles();
+      if (leftovers != null) {
+        for (File f : leftovers) {
+          // Extract the process id from the name, <directory name>_<pid>_<counter>
+          String name = f.getName();
+          int counterStart = name.lastIndexOf('_');
+          int pidStart = (counterStart > 0) ? name.lastIndexOf('_', counterStart - 1) : -1;
+          if (pidStart < 0 || processAlive(name.substring(pidStart + 1, counterStart)))
+            continue;
+          sReaper.execute(() -> Files.S.deleteDirectory(f));
+        }
+      }
+    }
+    return sReaper;
+  }
+
+  private static boolean processAlive(String pidString) {
+    try {
+      long pid = Long.parseLong(pidString);
+      if (pid == ProcessHandle.current().pid())
+        return true;
+      return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Wait for any pending deletions to complete
+   */
+  private static void drain() {
+    ExecutorService reaper;
+    synchronized (Trash.class) {
+      reaper = sReaper;
+    }
+    reaper.shutdown();
+    try {
+      if (!reaper.awaitTermination(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        pr("*** Trash deletion was still in progress at exit");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static File trashDir() {
+    return new File(MyTestUtils.unitTestDirectory().getAbsoluteFile(), "generated/_trash_");
+  }
+
+  private static final long DRAIN_TIMEOUT_SECONDS = 60;
+  private static final AtomicInteger sCounter = new AtomicInteger();
+  private static ExecutorService sReaper;
+}
@@ -0,0 +1,65 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.junit.runners.model.RunnerScheduler;
+
+/**
+ * Runs the children of a test runner as tasks within a fork-join pool. If the
+ * runner is itself running within one of the pool's threads, the children are
+ * forked onto that thread's queue, where idle threads can steal them; and while
+ * waiting for them to complete, the thread executes other pending tasks
+ */
+final class WorkStealingScheduler implements RunnerScheduler {
+
+  public WorkStealingScheduler(ForkJoinPool pool) {
+    mPool = pool;
+  }
+
+  @Override
+  public void schedule(Runnable childStatement) {
+    ForkJoinTask<?> task = ForkJoinTask.adapt(childStatement);
+    if (ForkJoinTask.getPool() == mPool)
+      task.fork();
+    else
+      mPool.execute(task);
+    mTasks.add(task);
+  }
+
+  @Override
+  public void finished() {
+    for (ForkJoinTask<?> task : mTasks)
+      task.join();
+  }
+
+  private final ForkJoinPool mPool;
+  private final List<ForkJoinTask<?>> mTasks = arrayList();
+}
@@ -0,0 +1,75 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread construction that depends upon the Java version we're running on.
+ * 
+ * This is the version for Java 21+, which runs tasks within virtual threads
+ * (unless the testutil.virtualThreads system property is false)
+ */
+final class ThreadSupport {
+
+  /**
+   * Construct an executor that runs at most a particular number of tasks
+   * concurrently
+   */
+  public static ExecutorService newExecutor(String name, int threads) {
+    if (!TestConfig.virtualThreads())
+      return Executors.newFixedThreadPool(threads, Thread.ofPlatform().name(name + "-", 1).daemon().factory());
+
+    // Virtual threads are cheap, so start one per task; but use a semaphore to limit how many
+    // of them are running at once
+    Semaphore permits = new Semaphore(threads);
+    ThreadFactory factory = Thread.ofVirtual().name(name + "-", 1).factory();
+    return Executors.newThreadPerTaskExecutor((r) -> factory.newThread(() -> {
+      permits.acquireUninterruptibly();
+      try {
+        r.run();
+      } finally {
+        permits.release();
+      }
+    }));
+  }
+
+  /**
+   * Pause the current thread, e.g. while polling for some condition. If it is
+   * a virtual thread, its carrier thread is free to run other threads while it
+   * sleeps
+   */
+  public static void sleepMs(long ms) {
+    try {
+      Thread.sleep(ms);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,84 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import js.json.JSMap;
+
+public class CanonicalDigestTest extends MyTestCase {
+
+  @Test
+  public void legacyHashesAreNotDigestHashes() {
+    for (int i = -5000; i < 5000; i++) {
+      int hash = MyTestCase.legacyHash(i * 7919);
+      assertTrue(hash >= 1000 && hash <= 9999);
+      assertFalse(CanonicalDigest.isDigestHash(hash));
+    }
+  }
+
+  @Test
+  public void registryHashesAreDigestHashes() {
+    for (int i = 0; i < 2000; i++) {
+      int hash = CanonicalDigest.registryHash(map().put("value", i));
+      assertTrue(hash >= 10000 && hash <= 99999);
+      assertTrue(CanonicalDigest.isDigestHash(hash));
+    }
+  }
+
+  @Test
+  public void mapKeyOrderIgnored() {
+    JSMap a = map().put("x", 1).put("y", "two").put("z", list().add(3).add("four"));
+    JSMap b = map().put("z", list().add(3).add("four")).put("y", "two").put("x", 1);
+    assertEquals(CanonicalDigest.registryHash(a), CanonicalDigest.registryHash(b));
+  }
+
+  @Test
+  public void valuesDistinguished() {
+    assertNotEquals(CanonicalDigest.registryHash(map().put("x", 1)),
+        CanonicalDigest.registryHash(map().put("x", "1")));
+    assertNotEquals(CanonicalDigest.registryHash(map().put("x", map())),
+        CanonicalDigest.registryHash(map().put("x", list())));
+  }
+
+  @Test
+  public void streamingMatchesValue() {
+    JSMap value = map().put("a", 5).put("b", map().put("c", "text"));
+    CanonicalDigest digest = CanonicalDigest.streaming();
+    digest.beginMap();
+    digest.mapKey("a");
+    digest.value(5);
+    digest.mapKey("b");
+    digest.beginMap();
+    digest.mapKey("c");
+    digest.value("text");
+    digest.endMap();
+    digest.endMap();
+    assertEquals(CanonicalDigest.registryHash(value), digest.registryHash());
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+import js.json.JSMap;
+
+public class DirSummaryWalkerTest extends MyTestCase {
+
+  @Test
+  public void matchesDirSummaryOfTestData() {
+    File dir = new File(FileManager.UNIT_TEST_DIRECTORY, "my_test_utils_test_data");
+    check(dir, null);
+    check(new File(dir, "g/h"), null);
+  }
+
+  @Test
+  public void matchesDirSummary() {
+    check(sourceTree(), null);
+  }
+
+  @Test
+  public void matchesDirSummaryWithIgnoredFiles() {
+    check(sourceTree(), List.of("ignored.txt"));
+  }
+
+  @Test
+  public void excludedPathsOmitted() {
+    File dir = sourceTree();
+    DirSummaryWalker walker = new DirSummaryWalker(dir, null, List.of("sub/file_3.txt"));
+    int hash = walker.summaryHashCode();
+    int registryHash = walker.registryHash();
+    files().deleteFile(new File(dir, "sub/file_3.txt"));
+    assertEquals(MyTestUtils.dirSummary(dir).hashCode(), hash);
+    assertEquals(CanonicalDigest.registryHash(digestSummary(dir, null)), registryHash);
+  }
+
+  @Test
+  public void knownDigestsUsed() {
+    File dir = sourceTree();
+    JSMap expected = digestSummary(dir, null);
+    expected.put("top.txt", "not the real digest");
+    DirSummaryWalker walker = new DirSummaryWalker(dir, null, null)
+        .withKnownDigests((f) -> f.getName().equals("top.txt") ? "not the real digest" : null);
+    assertEquals(CanonicalDigest.registryHash(expected), walker.registryHash());
+  }
+
+  private static void check(File dir, List<String> ignored) {
+    JSMap summary = MyTestUtils.dirSummary(dir, ignored);
+    DirSummaryWalker walker = new DirSummaryWalker(dir, ignored, null);
+    assertEquals(summary.hashCode(), walker.summaryHashCode());
+    assertEquals(CanonicalDigest.registryHash(digestSummary(dir, ignored)), walker.registryHash());
+    assertEquals(summary, walker.summary());
+  }
+
+  /**
+   * Construct a summary of a directory whose values for files are their
+   * digests, which is what DirSummaryWalker.registryHash() digests
+   */
+  private static JSMap digestSummary(File dir, List<String> ignored) {
+    JSMap m = map();
+    for (File f : MyTestUtils.files(dir)) {
+      if (MyTestUtils.ignoredSet(ignored).contains(f.getName()))
+        continue;
+      if (f.isDirectory()) {
+        JSMap child = digestSummary(f, ignored);
+        if (!child.keySet().isEmpty())
+          m.put(f.getName(), child);
+      } else
+        m.put(f.getName(), Digests.digestOf(f));
+    }
+    return m;
+  }
+
+  /**
+   * Construct a tree with nested and empty subdirectories, and enough files
+   * in one directory that they are hashed in more than one batch
+   */
+  private File sourceTree() {
+    File dir = generatedFile("source");
+    files().mkdirs(new File(dir, "empty"));
+    files().mkdirs(new File(dir, "nested/empty"));
+    files().mkdirs(new File(dir, "sub"));
+    files().writeString(new File(dir, "top.txt"), "top");
+    files().writeString(new File(dir, "ignored.txt"), "ignored");
+    files().writeString(new File(dir, "nested/inner.txt"), "inner");
+    for (int i = 0; i < 150; i++)
+      files().writeString(new File(dir, "sub/file_" + i + ".txt"), "contents " + (i % 10));
+    // (a subdirectory between runs of files)
+    files().writeString(new File(dir, "sub/m/deep.txt"), "deep");
+    files().writeString(new File(dir, "sub/z.txt"), "last");
+    return dir;
+  }
+}
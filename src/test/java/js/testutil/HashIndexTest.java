@@ -0,0 +1,115 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import js.json.JSMap;
+
+public class HashIndexTest extends MyTestCase {
+
+  @Test
+  public void importThenExport() {
+    File source = generatedFile("source");
+    files().mkdirs(source);
+    JSMap alpha = map().put("first", 1234).put("second", 56789);
+    JSMap beta = map().put("third", 4321);
+    files().writeString(new File(source, "Alpha.json"), alpha.prettyPrint());
+    files().writeString(new File(source, "Beta.json"), beta.prettyPrint());
+
+    File indexFile = generatedFile("index.bin");
+    HashIndex.importJson(source, indexFile);
+    File exported = generatedFile("exported");
+    files().mkdirs(exported);
+    HashIndex.exportJson(indexFile, exported);
+
+    assertEquals(alpha, JSMap.from(new File(exported, "Alpha.json")));
+    assertEquals(beta, JSMap.from(new File(exported, "Beta.json")));
+  }
+
+  @Test
+  public void putAndGet() {
+    File indexFile = emptyIndex();
+    HashIndex index = new HashIndex(indexFile);
+    // Enough entries that the index has to be enlarged
+    for (int i = 0; i < 500; i++)
+      index.put("Class" + (i % 7), "test" + i, 10000 + i);
+    index.put("Class3", "test3", 4444);
+    index.force();
+
+    for (HashIndex idx : List.of(index, new HashIndex(indexFile))) {
+      for (int i = 0; i < 500; i++)
+        assertEquals(i == 3 ? 4444 : 10000 + i, idx.get("Class" + (i % 7), "test" + i));
+      assertEquals(-1, idx.get("Class0", "missing"));
+      assertEquals(-1, idx.get("Missing", "test0"));
+    }
+  }
+
+  @Test
+  public void exportAfterPut() {
+    File indexFile = emptyIndex();
+    HashIndex index = new HashIndex(indexFile);
+    index.put("Gamma", "b", 2222);
+    index.put("Gamma", "a", 11111);
+    index.force();
+
+    File exported = generatedFile("exported");
+    files().mkdirs(exported);
+    HashIndex.exportJson(indexFile, exported);
+    Map<String, Object> expected = map().put("a", 11111).put("b", 2222).wrappedMap();
+    assertEquals(expected, JSMap.from(new File(exported, "Gamma.json")).wrappedMap());
+  }
+
+  @Test
+  public void updateWritesJsonFirst() {
+    File indexFile = emptyIndex();
+    HashIndex index = new HashIndex(indexFile);
+    File jsonFile = generatedFile("Delta.json");
+    Map<String, Integer> hashCodes = hashMap();
+    hashCodes.put("a", 1234);
+    index.update("Delta", hashCodes, () -> {
+      // The index shouldn't have been written yet
+      assertEquals(-1, new HashIndex(indexFile).get("Delta", "a"));
+      files().writeString(jsonFile, map().put("a", 1234).prettyPrint());
+    });
+    assertEquals(1234, new HashIndex(indexFile).get("Delta", "a"));
+    assertTrue(indexFile.lastModified() >= jsonFile.lastModified());
+  }
+
+  private File emptyIndex() {
+    File source = generatedFile("empty");
+    files().mkdirs(source);
+    File indexFile = generatedFile("index.bin");
+    HashIndex.importJson(source, indexFile);
+    return indexFile;
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LineDiffTest extends MyTestCase {
+
+  @Test
+  public void sameLines() {
+    assertEquals("...files have the same lines", diff(lines(), lines()));
+    assertEquals("...files have the same lines", diff(lines("a", "b"), lines("a", "b")));
+  }
+
+  @Test
+  public void insertIntoEmpty() {
+    assertEquals(HEADER + "@@ -0,0 +1,1 @@\n+a\n", diff(lines(), lines("a")));
+  }
+
+  @Test
+  public void deleteAll() {
+    assertEquals(HEADER + "@@ -1,1 +0,0 @@\n-a\n", diff(lines("a"), lines()));
+  }
+
+  @Test
+  public void insert() {
+    assertEquals(HEADER + "@@ -1,3 +1,4 @@\n a\n b\n+X\n c\n",
+        diff(lines("a", "b", "c"), lines("a", "b", "X", "c")));
+  }
+
+  @Test
+  public void delete() {
+    assertEquals(HEADER + "@@ -1,3 +1,2 @@\n a\n-b\n c\n", diff(lines("a", "b", "c"), lines("a", "c")));
+  }
+
+  @Test
+  public void replace() {
+    assertEquals(HEADER + "@@ -1,3 +1,3 @@\n a\n-b\n+X\n c\n",
+        diff(lines("a", "b", "c"), lines("a", "X", "c")));
+  }
+
+  @Test
+  public void separateHunks() {
+    assertEquals(HEADER //
+        + "@@ -1,4 +1,4 @@\n 1\n-2\n+X\n 3\n 4\n" //
+        + "@@ -6,4 +6,4 @@\n 6\n 7\n-8\n+Y\n 9\n", //
+        diff(lines("1", "2", "3", "4", "5", "6", "7", "8", "9"),
+            lines("1", "X", "3", "4", "5", "6", "7", "Y", "9")));
+  }
+
+  @Test
+  public void outputTruncated() {
+    String result = LineDiff.diff(lines("1", "2", "3", "4", "5", "6", "7", "8", "9"),
+        lines("1", "X", "3", "4", "5", "6", "7", "Y", "9"), "a", "b", 3);
+    assertEquals(HEADER + "@@ -1,4 +1,4 @@\n 1\n-2\n...(output truncated)\n", result);
+  }
+
+  @Test
+  public void tooManyEdits() {
+    List<String> a = new ArrayList<>();
+    List<String> b = new ArrayList<>();
+    for (int i = 0; i < 1100; i++) {
+      a.add("a" + i);
+      b.add("b" + i);
+    }
+    assertEquals("...files differ in more than 1000 lines", diff(a, b));
+  }
+
+  private static List<String> lines(String... lines) {
+    return Arrays.asList(lines);
+  }
+
+  private static String diff(List<String> a, List<String> b) {
+    return LineDiff.diff(a, b, "a", "b", 200);
+  }
+
+  private static final String HEADER = "--- a\n+++ b\n";
+}
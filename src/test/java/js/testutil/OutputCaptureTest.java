@@ -0,0 +1,80 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class OutputCaptureTest extends MyTestCase {
+
+  @Test
+  public void smallOutputKeptInMemory() throws IOException {
+    OutputCapture capture = new OutputCapture("small");
+    byte[] data = "hello\nworld\n".getBytes(StandardCharsets.UTF_8);
+    capture.write(data);
+    assertEquals("hello\nworld\n", capture.content());
+
+    File file = generatedFile("small.txt");
+    MessageDigest expected = Digests.newDigest();
+    expected.update(data);
+    String expectedDigest = Digests.hex(expected.digest());
+    assertEquals(expectedDigest, capture.saveTo(file));
+    assertEquals(expectedDigest, Digests.digestOf(file));
+  }
+
+  @Test
+  public void spillsPastThreshold() throws IOException {
+    OutputCapture capture = new OutputCapture("large");
+    MessageDigest expected = Digests.newDigest();
+    SplittableRandom r = randomStream();
+    byte[] chunk = new byte[100_000];
+    long total = 0;
+    // Write more than the 8 MB that is held in memory, in a mixture of chunk sizes
+    while (total <= 9 << 20) {
+      for (int i = 0; i < chunk.length; i++)
+        chunk[i] = (byte) ('a' + r.nextInt(26));
+      int length = 1 + r.nextInt(chunk.length);
+      capture.write(chunk, 0, length);
+      capture.write('\n');
+      expected.update(chunk, 0, length);
+      expected.update((byte) '\n');
+      total += length + 1;
+    }
+    assertEquals(total, capture.content().length());
+
+    File file = generatedFile("large.txt");
+    String expectedDigest = Digests.hex(expected.digest());
+    assertEquals(expectedDigest, capture.saveTo(file));
+    assertEquals(total, file.length());
+    assertEquals(expectedDigest, Digests.digestOf(file));
+  }
+}
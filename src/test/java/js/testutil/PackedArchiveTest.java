@@ -0,0 +1,99 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Test;
+
+import js.file.Files;
+
+public class PackedArchiveTest extends MyTestCase {
+
+  @Test
+  public void packAndLookup() {
+    File source = sourceTree();
+    PackedArchive archive = pack(source);
+
+    assertEquals(List.of("a.txt", "empty.txt", "sub/b.txt", "sub/deeper/c.txt"), archive.paths());
+    for (String path : archive.paths())
+      assertArrayEquals(Files.toByteArray(new File(source, path), null), bytes(archive.lookup(path)));
+    assertNull(archive.lookup("missing.txt"));
+  }
+
+  @Test
+  public void unpack() {
+    File source = sourceTree();
+    PackedArchive archive = pack(source);
+    File target = generatedFile("target");
+    archive.unpack(target);
+    assertEquals(MyTestUtils.dirSummary(source), MyTestUtils.dirSummary(target));
+  }
+
+  @Test
+  public void unpackReplacesExistingDirectory() {
+    File source = sourceTree();
+    PackedArchive archive = pack(source);
+    File target = generatedFile("target");
+    files().mkdirs(target);
+    files().writeString(new File(target, "stale.txt"), "stale");
+    files().writeString(new File(target, "a.txt"), "old version");
+
+    archive.unpack(target);
+    assertEquals(MyTestUtils.dirSummary(source), MyTestUtils.dirSummary(target));
+    // Unpacking again over the new copy gives the same result
+    archive.unpack(target);
+    assertEquals(MyTestUtils.dirSummary(source), MyTestUtils.dirSummary(target));
+  }
+
+  private File sourceTree() {
+    File source = generatedFile("source");
+    files().mkdirs(new File(source, "sub/deeper"));
+    files().writeString(new File(source, "a.txt"), "alpha\n");
+    files().writeString(new File(source, "empty.txt"), "");
+    files().writeString(new File(source, "sub/b.txt"), "beta \u00e9\n");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 10000; i++)
+      sb.append(i).append('\n');
+    files().writeString(new File(source, "sub/deeper/c.txt"), sb.toString());
+    return source;
+  }
+
+  private PackedArchive pack(File source) {
+    File archiveFile = generatedFile("source.pack");
+    PackedArchive.pack(source, archiveFile);
+    return PackedArchive.open(archiveFile);
+  }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    byte[] result = new byte[buffer.remaining()];
+    buffer.duplicate().get(result);
+    return result;
+  }
+}
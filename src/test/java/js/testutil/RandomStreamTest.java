@@ -0,0 +1,75 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class RandomStreamTest extends MyTestCase {
+
+  @Test
+  public void streamsReproducible() {
+    long[] values = values(randomStream(3));
+    // Using the test's other generator doesn't affect the streams
+    random().nextInt();
+    assertArrayEquals(values, values(randomStream(3)));
+  }
+
+  @Test
+  public void indicesGiveDifferentStreams() {
+    assertFalse(Arrays.equals(values(randomStream(0)), values(randomStream(1))));
+    assertArrayEquals(values(randomStream(0)), values(randomStream()));
+  }
+
+  @Test
+  public void seedDeterminesStreams() {
+    resetSeed(1);
+    long[] first = values(randomStream(0));
+    resetSeed(2);
+    assertFalse(Arrays.equals(first, values(randomStream(0))));
+    resetSeed(1);
+    assertArrayEquals(first, values(randomStream(0)));
+  }
+
+  @Test
+  public void concurrentTasksReproducible() {
+    long[][] sequential = new long[50][];
+    for (int i = 0; i < sequential.length; i++)
+      sequential[i] = values(randomStream(i));
+    long[][] concurrent = new long[sequential.length][];
+    IntStream.range(0, concurrent.length).parallel().forEach(i -> concurrent[i] = values(randomStream(i)));
+    for (int i = 0; i < sequential.length; i++)
+      assertArrayEquals(sequential[i], concurrent[i]);
+  }
+
+  private static long[] values(SplittableRandom r) {
+    return r.longs(20).toArray();
+  }
+}
@@ -0,0 +1,102 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2021 Jeff Sember
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ **/
+package js.testutil;
+
+import static js.base.Tools.*;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class ShardFilterTest extends MyTestCase {
+
+  @Test
+  public void everyTestInExactlyOneShard() {
+    Map<String, Long> durations = durations();
+    List<String> keys = arrayList();
+    keys.addAll(durations.keySet());
+    // Tests that don't appear in the history are partitioned by name
+    for (int i = 0; i < 50; i++)
+      keys.add("NewTest.test" + i);
+
+    for (int shardCount : new int[] { 1, 2, 3, 7 }) {
+      ShardFilter[] shards = new ShardFilter[shardCount];
+      for (int i = 0; i < shardCount; i++)
+        shards[i] = ShardFilter.forShard(i, shardCount, durations);
+      for (String key : keys) {
+        int count = 0;
+        for (ShardFilter shard : shards)
+          if (shard.includes(key))
+            count++;
+        assertEquals(key, 1, count);
+      }
+    }
+  }
+
+  @Test
+  public void shardsBalancedByDuration() {
+    Map<String, Long> durations = durations();
+    int shardCount = 4;
+    long[] totals = new long[shardCount];
+    long longest = 0;
+    for (int i = 0; i < shardCount; i++) {
+      ShardFilter shard = ShardFilter.forShard(i, shardCount, durations);
+      for (Map.Entry<String, Long> ent : durations.entrySet())
+        if (shard.includes(ent.getKey()))
+          totals[i] += ent.getValue();
+    }
+    for (long duration : durations.values())
+      longest = Math.max(longest, duration);
+    long min = Long.MAX_VALUE;
+    long max = 0;
+    for (long total : totals) {
+      min = Math.min(min, total);
+      max = Math.max(max, total);
+    }
+    assertTrue("shard totals differ by more than the longest test", max - min <= longest);
+  }
+
+  @Test
+  public void emptyHistory() {
+    ShardFilter first = ShardFilter.forShard(0, 2, new TreeMap<>());
+    ShardFilter second = ShardFilter.forShard(1, 2, new TreeMap<>());
+    for (int i = 0; i < 100; i++) {
+      String key = "SomeTest.test" + i;
+      assertTrue(first.includes(key) != second.includes(key));
+    }
+  }
+
+  private Map<String, Long> durations() {
+    SplittableRandom r = randomStream();
+    Map<String, Long> durations = new TreeMap<>();
+    for (int i = 0; i < 200; i++)
+      durations.put("Class" + (i % 13) + ".test" + i, 1L + r.nextInt(5000));
+    return durations;
+  }
+}